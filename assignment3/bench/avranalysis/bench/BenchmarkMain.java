@@ -0,0 +1,36 @@
+package avranalysis.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the stack analysis benchmarks, reporting both throughput and allocation
+ * rate. This must be run from the assignment3 directory, so that the firmware
+ * images in the tests directory can be found. Any arguments are treated as
+ * regular expressions selecting which benchmarks to run.
+ *
+ * @author Caitlin
+ *
+ */
+public class BenchmarkMain {
+  /**
+   * Command-line entry point.
+   *
+   * @param args = benchmark name patterns (defaults to all benchmarks).
+   * @throws RunnerException if a benchmark fails.
+   */
+  public static void main(String[] args) throws RunnerException {
+    OptionsBuilder builder = new OptionsBuilder();
+    if (args.length == 0) {
+      builder.include("avranalysis\\.bench\\..*");
+    }
+    for (String pattern : args) {
+      builder.include(pattern);
+    }
+    Options options = builder.addProfiler(GCProfiler.class).build();
+    new Runner(options).run();
+  }
+}
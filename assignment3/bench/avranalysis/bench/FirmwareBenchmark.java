@@ -0,0 +1,145 @@
+package avranalysis.bench;
+
+import avranalysis.core.InstructionTable;
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.HexLoader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import javr.io.HexFile;
+import javr.memory.ElasticByteMemory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks each stage of the stack analysis over the firmware images in the
+ * tests directory: parsing the hex file, uploading it into memory, decoding it
+ * and applying the analysis. Loading the hex file directly into flash (which
+ * replaces parsing and uploading) is benchmarked alongside.
+ *
+ * @author Caitlin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FirmwareBenchmark {
+  /**
+   * Identifies the directory in which the test firmwares are located.
+   */
+  private static final String TESTS_DIR = "tests/".replace("/", File.separator);
+
+  /**
+   * The firmware image being benchmarked.
+   */
+  @Param({ "fader.hex", "blocks_1.hex", "blocks_2.hex", "blocks_3.hex", "blocks_4.hex",
+      "blocks_5.hex", "blocks_6.hex", "blocks_7.hex", "blocker_1.hex", "blocker_2.hex",
+      "numbers_1.hex", "tetris.hex", "snake.hex" })
+  public String filename;
+
+  /**
+   * The contents of the hex file.
+   */
+  private String text;
+
+  /**
+   * The contents of the hex file, as held in a direct buffer (like a mapped
+   * file).
+   */
+  private ByteBuffer buffer;
+
+  /**
+   * The parsed hex file.
+   */
+  private HexFile hexFile;
+
+  /**
+   * The firmware image uploaded into memory.
+   */
+  private ElasticByteMemory firmware;
+
+  /**
+   * Read the firmware image, and prepare the inputs to each stage.
+   *
+   * @throws IOException if the image cannot be read.
+   */
+  @Setup
+  public void setup() throws IOException {
+    byte[] bytes = Files.readAllBytes(new File(TESTS_DIR + this.filename).toPath());
+    this.text = new String(bytes, StandardCharsets.US_ASCII);
+    this.buffer = ByteBuffer.allocateDirect(bytes.length);
+    this.buffer.put(bytes).flip();
+    this.hexFile = parse();
+    this.firmware = upload();
+  }
+
+  /**
+   * Parse the hex file into records.
+   *
+   * @return hexFile = parsed hex file.
+   * @throws IOException if the hex file is invalid.
+   */
+  @Benchmark
+  public HexFile parse() throws IOException {
+    return new HexFile.Reader(new StringReader(this.text)).readAll();
+  }
+
+  /**
+   * Upload the parsed hex file into memory.
+   *
+   * @return firmware = uploaded firmware image.
+   */
+  @Benchmark
+  public ElasticByteMemory upload() {
+    ElasticByteMemory memory = new ElasticByteMemory();
+    this.hexFile.uploadTo(memory);
+    return memory;
+  }
+
+  /**
+   * Load the hex file directly into flash, in place of parsing and uploading.
+   *
+   * @return flash = contents of the firmware image.
+   * @throws IOException if the hex file is invalid.
+   */
+  @Benchmark
+  public byte[] load() throws IOException {
+    return HexLoader.parse(this.buffer);
+  }
+
+  /**
+   * Decode every instruction of the firmware image.
+   *
+   * @return table = decoded instructions.
+   */
+  @Benchmark
+  public InstructionTable decode() {
+    return new InstructionTable(this.firmware);
+  }
+
+  /**
+   * Apply the full stack analysis, including uploading and decoding.
+   *
+   * @return maxHeight = height of stack.
+   */
+  @Benchmark
+  public int analyse() {
+    return new StackAnalysis(this.hexFile).apply();
+  }
+}
@@ -0,0 +1,127 @@
+package avranalysis.bench;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+import avranalysis.util.FlashMemory;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import javr.io.HexFile;
+
+/**
+ * Measures how the stack analysis scales with the size of an image, using
+ * synthetic images of each shape from a full 8KB ATtiny85 flash up to a given
+ * limit (128KB by default). One line of CSV is printed for each image, giving
+ * its shape and size, the height computed, the best analysis time and the
+ * number of bytes allocated by the analysis, so that the results can be
+ * plotted directly. Usage:
+ *
+ * <pre>
+ * java avranalysis.bench.ScalingRunner [limit-in-bytes]
+ * </pre>
+ *
+ * @author Caitlin
+ *
+ */
+public class ScalingRunner {
+  /**
+   * The size of the smallest image generated (in bytes).
+   */
+  private static final int MIN_BYTES = 8 * 1024;
+
+  /**
+   * The number of times each image is analysed, of which the fastest is kept.
+   */
+  private static final int REPEATS = 5;
+
+  /**
+   * Command-line entry point.
+   *
+   * @param args = command-line arguments.
+   */
+  public static void main(String[] args) {
+    int limit = args.length > 0 ? Integer.parseInt(args[0]) : 128 * 1024;
+    System.out.println("shape,bytes,height,millis,allocated");
+    for (int bytes = MIN_BYTES; bytes <= limit; bytes *= 2) {
+      int words = bytes / 2;
+      measure("line", FirmwareGenerator.straightLine(words / 2 - 1));
+      measure("loops", FirmwareGenerator.nestedLoops(32, words / 128));
+      measure("tree", FirmwareGenerator.callTree(treeDepth(words, 2), 2));
+      measure("chain", FirmwareGenerator.callTree(words / 3 - 1, 1));
+      measure("fan", FirmwareGenerator.branchFan(words / 7));
+      measure("recursion", FirmwareGenerator.recursion(words / 3 - 1));
+    }
+  }
+
+  /**
+   * Analyse a given image several times, and print a line of results.
+   *
+   * @param shape = name of the shape of the image.
+   * @param hf    = image to analyse.
+   */
+  private static void measure(String shape, HexFile hf) {
+    int height = 0;
+    long best = Long.MAX_VALUE;
+    long allocated = -1;
+    for (int i = 0; i < REPEATS; i++) {
+      long before = allocatedBytes();
+      long start = System.nanoTime();
+      height = new StackAnalysis(hf).apply();
+      best = Math.min(best, System.nanoTime() - start);
+      long after = allocatedBytes();
+      if (before >= 0 && after >= 0) {
+        allocated = after - before;
+      }
+    }
+    String heightText = height == Integer.MAX_VALUE ? "unbounded" : Integer.toString(height);
+    System.out.println(shape + "," + size(hf) + "," + heightText + ","
+        + String.format("%.3f", Double.valueOf(best / 1e6)) + "," + allocated);
+  }
+
+  /**
+   * Determine the depth of the largest tree of functions with a given fanout
+   * which fits within a given number of words.
+   *
+   * @param words  = number of words available.
+   * @param fanout = number of functions called by each function.
+   * @return depth = number of levels in the tree.
+   */
+  private static int treeDepth(int words, int fanout) {
+    // Each function occupies roughly 2 * fanout + 1 words, so the tree can have
+    // at most this many functions.
+    int functions = words / (2 * fanout + 1);
+    int depth = 1;
+    int total = 1;
+    int width = 1;
+    while (total + width * fanout <= functions) {
+      width *= fanout;
+      total += width;
+      depth++;
+    }
+    return depth;
+  }
+
+  /**
+   * Determine the number of bytes in a given image.
+   *
+   * @param hf = image.
+   * @return bytes = size of image.
+   */
+  private static int size(HexFile hf) {
+    return FlashMemory.of(hf).size();
+  }
+
+  /**
+   * Get the number of bytes allocated so far by the current thread, where this
+   * is supported by the JVM.
+   *
+   * @return bytes = bytes allocated, or -1 if unsupported.
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,109 @@
+package avranalysis.bench;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+import java.util.concurrent.TimeUnit;
+import javr.core.AvrInstruction;
+import javr.io.HexFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the stack analysis over synthetic firmware images which exercise
+ * its worst cases: long chains of nested calls, and long sequences of branch
+ * diamonds (each of which doubles the number of paths).
+ *
+ * @author Caitlin
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyntheticBenchmark {
+  /**
+   * The shape of the synthetic image.
+   */
+  @Param({ "calls", "diamonds" })
+  public String shape;
+
+  /**
+   * The number of calls or diamonds in the synthetic image.
+   */
+  @Param({ "100", "1000" })
+  public int size;
+
+  /**
+   * The synthetic image.
+   */
+  private HexFile hexFile;
+
+  /**
+   * Generate the synthetic image.
+   */
+  @Setup
+  public void setup() {
+    if (this.shape.equals("calls")) {
+      this.hexFile = FirmwareGenerator.assemble(callChain(this.size));
+    } else {
+      this.hexFile = FirmwareGenerator.assemble(diamonds(this.size));
+    }
+  }
+
+  /**
+   * Apply the full stack analysis, including uploading and decoding.
+   *
+   * @return maxHeight = height of stack.
+   */
+  @Benchmark
+  public int analyse() {
+    return new StackAnalysis(this.hexFile).apply();
+  }
+
+  /**
+   * Generate a chain of functions, each of which calls the next.
+   *
+   * @param depth = number of functions in the chain.
+   * @return instructions = generated instructions.
+   */
+  private static AvrInstruction[] callChain(int depth) {
+    AvrInstruction[] instructions = new AvrInstruction[2 * depth + 3];
+    instructions[0] = new AvrInstruction.RCALL(1);
+    instructions[1] = new AvrInstruction.RJMP(-1);
+    for (int i = 2; i < 2 * depth + 2; i += 2) {
+      instructions[i] = new AvrInstruction.RCALL(1);
+      instructions[i + 1] = new AvrInstruction.RET();
+    }
+    instructions[2 * depth + 2] = new AvrInstruction.RET();
+    return instructions;
+  }
+
+  /**
+   * Generate a sequence of branch diamonds, one side of which pushes and pops.
+   *
+   * @param count = number of diamonds in the sequence.
+   * @return instructions = generated instructions.
+   */
+  private static AvrInstruction[] diamonds(int count) {
+    AvrInstruction[] instructions = new AvrInstruction[4 * count + 1];
+    for (int i = 0; i < 4 * count; i += 4) {
+      instructions[i] = new AvrInstruction.BREQ(2);
+      instructions[i + 1] = new AvrInstruction.PUSH(16);
+      instructions[i + 2] = new AvrInstruction.POP(16);
+      instructions[i + 3] = new AvrInstruction.NOP();
+    }
+    instructions[4 * count] = new AvrInstruction.RJMP(-1);
+    return instructions;
+  }
+}
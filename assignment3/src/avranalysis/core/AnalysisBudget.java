@@ -0,0 +1,103 @@
+package avranalysis.core;
+
+/**
+ * Limits on the work which the stack analysis may perform on a single image.
+ * When any limit is exceeded, the analysis gives up and reports the stack as
+ * unbounded. This is always a sound over-approximation, and means that a
+ * single pathological image cannot stall a build which checks many images.
+ *
+ * @author Caitlin
+ *
+ */
+public final class AnalysisBudget {
+  /**
+   * Identifies a limit which can be exceeded.
+   *
+   * @author Caitlin
+   *
+   */
+  public enum Kind {
+    /**
+     * The number of states (i.e. instructions) explored across all functions.
+     */
+    STATES,
+    /**
+     * The wall-clock time spent analysing.
+     */
+    TIME,
+    /**
+     * The depth of nested calls from the beginning of the image.
+     */
+    CALL_DEPTH
+  }
+
+  /**
+   * A budget which places no limits on the analysis.
+   */
+  public static final AnalysisBudget UNLIMITED = new AnalysisBudget(Long.MAX_VALUE,
+      Long.MAX_VALUE, Integer.MAX_VALUE);
+
+  /**
+   * The maximum number of states which may be explored.
+   */
+  private final long maxStates;
+
+  /**
+   * The maximum time which may be spent analysing (in milliseconds).
+   */
+  private final long maxTime;
+
+  /**
+   * The maximum depth of nested calls.
+   */
+  private final int maxCallDepth;
+
+  /**
+   * Constructor for Analysis Budget class.
+   *
+   * @param maxStates    = maximum number of states explored.
+   * @param maxTime      = maximum time spent analysing (in milliseconds).
+   * @param maxCallDepth = maximum depth of nested calls.
+   */
+  public AnalysisBudget(long maxStates, long maxTime, int maxCallDepth) {
+    if (maxStates < 0 || maxTime < 0 || maxCallDepth < 0) {
+      throw new IllegalArgumentException("invalid budget");
+    }
+    this.maxStates = maxStates;
+    this.maxTime = maxTime;
+    this.maxCallDepth = maxCallDepth;
+  }
+
+  /**
+   * Get the maximum number of states which may be explored.
+   *
+   * @return maxStates = number of states.
+   */
+  public long getMaxStates() {
+    return this.maxStates;
+  }
+
+  /**
+   * Get the maximum time which may be spent analysing.
+   *
+   * @return maxTime = time in milliseconds.
+   */
+  public long getMaxTime() {
+    return this.maxTime;
+  }
+
+  /**
+   * Get the maximum depth of nested calls.
+   *
+   * @return maxCallDepth = depth of calls.
+   */
+  public int getMaxCallDepth() {
+    return this.maxCallDepth;
+  }
+
+  @Override
+  public String toString() {
+    return "states=" + this.maxStates + ", time=" + this.maxTime + "ms, depth="
+        + this.maxCallDepth;
+  }
+}
@@ -0,0 +1,441 @@
+package avranalysis.core;
+
+import avranalysis.util.FlashMemory;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A persistent cache of analysis results, held in a directory on disk. Each
+ * entry is keyed by the SHA-256 hash of the firmware image (together with the
+ * number of interrupt vectors analysed), and holds the function summaries,
+ * interrupt handlers and stack heights found for that image in a compact binary
+ * file. Entries are memory-mapped when loaded. Hence, applying the analysis to
+ * an image which has been analysed before requires neither decoding nor
+ * traversal.
+ *
+ * <p>
+ * Every entry records the version of the analysis which produced it. Entries
+ * written by any other version are evicted, both when the cache is opened and
+ * when they are found during lookup. The cache is an optimisation only, so an
+ * entry which cannot be read or written is simply treated as missing. Entries
+ * are written to a temporary file and then moved into place, so that several
+ * processes can share the same directory.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+public final class AnalysisCache {
+  /**
+   * The version of the analysis whose results are cached. This must be
+   * incremented whenever a change to the analysis could change its results,
+   * or when the layout of an entry changes.
+   */
+  public static final int VERSION = 2;
+
+  /**
+   * Identifies a file as an entry of this cache.
+   */
+  private static final int MAGIC = 0x53544b43;
+
+  /**
+   * The suffix of the name of each entry file.
+   */
+  private static final String SUFFIX = ".stack";
+
+  /**
+   * The size of the header of each entry (in bytes).
+   */
+  private static final int HEADER = 8;
+
+  /**
+   * The results cached for a single firmware image.
+   *
+   * @author Caitlin
+   *
+   */
+  static final class Entry {
+    /**
+     * The number of words in the image.
+     */
+    final int words;
+
+    /**
+     * The maximum stack height of the main program.
+     */
+    final int mainHeight;
+
+    /**
+     * The maximum stack height added by interrupt handlers.
+     */
+    final int interruptHeight;
+
+    /**
+     * The entry addresses of the interrupt handlers.
+     */
+    final int[] handlers;
+
+    /**
+     * The entry addresses of the functions traversed without tail calls (see
+     * StackAnalysis).
+     */
+    final int[] inlined;
+
+    /**
+     * The summary of every function reached.
+     */
+    final FunctionSummary[] summaries;
+
+    /**
+     * Constructor for Entry class.
+     *
+     * @param words           = number of words in the image.
+     * @param mainHeight      = maximum stack height of the main program.
+     * @param interruptHeight = maximum stack height added by interrupts.
+     * @param handlers        = entry addresses of the interrupt handlers.
+     * @param inlined         = entry addresses of the functions traversed
+     *                        without tail calls.
+     * @param summaries       = summary of every function reached.
+     */
+    Entry(int words, int mainHeight, int interruptHeight, int[] handlers, int[] inlined,
+        FunctionSummary[] summaries) {
+      this.words = words;
+      this.mainHeight = mainHeight;
+      this.interruptHeight = interruptHeight;
+      this.handlers = handlers;
+      this.inlined = inlined;
+      this.summaries = summaries;
+    }
+  }
+
+  /**
+   * The directory holding the entries.
+   */
+  private final File directory;
+
+  /**
+   * Constructor for Analysis Cache class. The directory is created if
+   * necessary, and any entries written by other versions of the analysis are
+   * evicted.
+   *
+   * @param directory = directory in which to hold entries.
+   * @throws IOException if the directory cannot be created.
+   */
+  public AnalysisCache(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("cannot create cache directory " + directory);
+    }
+    this.directory = directory;
+    evictStale();
+  }
+
+  /**
+   * Get the directory holding the entries.
+   *
+   * @return directory = cache directory.
+   */
+  public File getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Remove every entry written by a version of the analysis other than this
+   * one.
+   *
+   * @return count = number of entries removed.
+   */
+  public int evictStale() {
+    File[] files = this.directory.listFiles();
+    int count = 0;
+    if (files == null) {
+      return count;
+    }
+    for (File file : files) {
+      if (file.getName().endsWith(SUFFIX) && !isCurrent(file) && file.delete()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Determine the key of a given firmware image. This is the SHA-256 hash of
+   * its contents and of the number of interrupt vectors analysed, since both
+   * determine the results.
+   *
+   * @param firmware = firmware image.
+   * @param vectors  = number of interrupt vectors analysed.
+   * @return key = hexadecimal digest.
+   */
+  static String toKey(FlashMemory firmware, int vectors) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+    digest.update(firmware.asBuffer());
+    digest.update(ByteBuffer.allocate(4).putInt(vectors).array());
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16));
+      key.append(Character.forDigit(b & 0xF, 16));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Load the entry with a given key. An entry which is not consistent with an
+   * image of the given size (e.g. because it is corrupt) is removed, and
+   * treated as though there were none.
+   *
+   * @param key   = key of the firmware image.
+   * @param words = number of words in the image.
+   * @return entry = cached results, or null if there are none.
+   */
+  Entry load(String key, int words) {
+    File file = new File(this.directory, key + SUFFIX);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.remaining() < HEADER || buffer.getInt() != MAGIC
+            || buffer.getInt() != VERSION) {
+          raf.close();
+          file.delete();
+          return null;
+        }
+        Entry entry = read(buffer);
+        if (!isValid(entry, words)) {
+          raf.close();
+          file.delete();
+          return null;
+        }
+        return entry;
+      } finally {
+        raf.close();
+      }
+    } catch (IOException e) {
+      return null;
+    } catch (RuntimeException e) {
+      // A truncated or corrupt entry
+      file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Store an entry with a given key, replacing any existing entry.
+   *
+   * @param key   = key of the firmware image.
+   * @param entry = results to cache.
+   */
+  void store(String key, Entry entry) {
+    ByteBuffer buffer = write(entry);
+    File file = new File(this.directory, key + SUFFIX);
+    try {
+      File temp = File.createTempFile(key, ".tmp", this.directory);
+      try {
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try {
+          FileChannel channel = raf.getChannel();
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+        } finally {
+          raf.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        temp.delete();
+      }
+    } catch (IOException e) {
+      // Nothing is lost, since the entry can be computed again
+    }
+  }
+
+  /**
+   * Check whether a given file is an entry written by this version of the
+   * analysis.
+   *
+   * @param file = entry file.
+   * @return true if current, false otherwise.
+   */
+  private static boolean isCurrent(File file) {
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        return raf.length() >= HEADER && raf.readInt() == MAGIC && raf.readInt() == VERSION;
+      } finally {
+        raf.close();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Check whether a given entry is consistent with an image of a given size.
+   * That is, every address it holds is within the image, there is exactly one
+   * summary for reset and for each other function, and every handler and
+   * function called has a summary.
+   *
+   * @param entry = cached results.
+   * @param words = number of words in the image.
+   * @return true if consistent, false otherwise.
+   */
+  private static boolean isValid(Entry entry, int words) {
+    if (entry.words != words || !isWithin(entry.inlined, words)) {
+      return false;
+    }
+    int[] entries = new int[entry.summaries.length];
+    for (int i = 0; i < entries.length; i++) {
+      entries[i] = entry.summaries[i].getEntry();
+    }
+    if (!isWithin(entries, words)) {
+      return false;
+    }
+    Arrays.sort(entries);
+    for (int i = 1; i < entries.length; i++) {
+      if (entries[i - 1] == entries[i]) {
+        return false;
+      }
+    }
+    if (entries.length == 0 || entries[0] != 0) {
+      return false;
+    }
+    for (int handler : entry.handlers) {
+      if (Arrays.binarySearch(entries, handler) < 0) {
+        return false;
+      }
+    }
+    for (FunctionSummary summary : entry.summaries) {
+      for (int callee : summary.getCallees()) {
+        if (Arrays.binarySearch(entries, callee) < 0) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Check whether every one of the given addresses is within an image of a
+   * given size.
+   *
+   * @param addresses = word addresses.
+   * @param words     = number of words in the image.
+   * @return true if all within the image, false otherwise.
+   */
+  private static boolean isWithin(int[] addresses, int words) {
+    for (int address : addresses) {
+      if (address < 0 || address >= words) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Read the body of an entry, following its header.
+   *
+   * @param buffer = contents of the entry file.
+   * @return entry = cached results.
+   */
+  private static Entry read(ByteBuffer buffer) {
+    int words = buffer.getInt();
+    int mainHeight = buffer.getInt();
+    int interruptHeight = buffer.getInt();
+    int[] handlers = readInts(buffer);
+    int[] inlined = readInts(buffer);
+    int count = buffer.getInt();
+    if (count < 0 || count > buffer.remaining() / 13) {
+      throw new BufferUnderflowException();
+    }
+    FunctionSummary[] summaries = new FunctionSummary[count];
+    for (int i = 0; i < summaries.length; i++) {
+      int entry = buffer.getInt();
+      int maxHeight = buffer.getInt();
+      boolean enablesInterrupts = buffer.get() != 0;
+      summaries[i] = new FunctionSummary(entry, maxHeight, enablesInterrupts, readInts(buffer));
+    }
+    return new Entry(words, mainHeight, interruptHeight, handlers, inlined, summaries);
+  }
+
+  /**
+   * Write an entry, including its header.
+   *
+   * @param entry = results to cache.
+   * @return buffer = contents of the entry file, ready to be written.
+   */
+  private static ByteBuffer write(Entry entry) {
+    int size = HEADER + 24 + 4 * entry.handlers.length + 4 * entry.inlined.length;
+    for (FunctionSummary summary : entry.summaries) {
+      size += 13 + 4 * summary.getCallees().length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(entry.words);
+    buffer.putInt(entry.mainHeight);
+    buffer.putInt(entry.interruptHeight);
+    writeInts(buffer, entry.handlers);
+    writeInts(buffer, entry.inlined);
+    buffer.putInt(entry.summaries.length);
+    for (FunctionSummary summary : entry.summaries) {
+      buffer.putInt(summary.getEntry());
+      buffer.putInt(summary.getMaxHeight());
+      buffer.put((byte) (summary.enablesInterrupts() ? 1 : 0));
+      writeInts(buffer, summary.getCallees());
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Read a length-prefixed array of integers.
+   *
+   * @param buffer = buffer to read from.
+   * @return array = integers read.
+   */
+  private static int[] readInts(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining() / 4) {
+      throw new BufferUnderflowException();
+    }
+    int[] array = new int[length];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = buffer.getInt();
+    }
+    return array;
+  }
+
+  /**
+   * Write a length-prefixed array of integers.
+   *
+   * @param buffer = buffer to write to.
+   * @param array  = integers to write.
+   */
+  private static void writeInts(ByteBuffer buffer, int[] array) {
+    buffer.putInt(array.length);
+    for (int item : array) {
+      buffer.putInt(item);
+    }
+  }
+}
@@ -0,0 +1,427 @@
+package avranalysis.core;
+
+import avranalysis.util.HexLoader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Applies the stack analysis to many firmware images at once. Images are
+ * parsed and analysed concurrently on a bounded pool of threads, and a result
+ * is reported for each image as soon as it finishes.
+ *
+ * @author Caitlin
+ *
+ */
+public class BatchAnalysis {
+  /**
+   * Receives the result for each image as it finishes.
+   *
+   * @author Caitlin
+   *
+   */
+  public interface Listener {
+    /**
+     * Called once for each image analysed. Calls are made from the thread which
+     * invoked run(), and never concurrently.
+     *
+     * @param result = result for the image.
+     */
+    void finished(Result result);
+  }
+
+  /**
+   * The result of analysing a single firmware image.
+   *
+   * @author Caitlin
+   *
+   */
+  public static class Result {
+    /**
+     * The file from which the image was read.
+     */
+    private final File file;
+
+    /**
+     * The maximum stack height of the image, or Integer.MAX_VALUE if unbounded.
+     */
+    private final int maxHeight;
+
+    /**
+     * The limit exceeded whilst analysing the image, or null.
+     */
+    private final AnalysisBudget.Kind exhausted;
+
+    /**
+     * Time taken to parse the image (in nanoseconds).
+     */
+    private final long parseTime;
+
+    /**
+     * Time taken to analyse the image (in nanoseconds).
+     */
+    private final long analysisTime;
+
+    /**
+     * The error which prevented the image from being analysed, or null.
+     */
+    private final Exception error;
+
+    /**
+     * Constructor for Result class.
+     *
+     * @param file         = file from which the image was read.
+     * @param maxHeight    = maximum stack height of the image.
+     * @param exhausted    = limit exceeded whilst analysing, or null.
+     * @param parseTime    = time taken to parse the image.
+     * @param analysisTime = time taken to analyse the image.
+     * @param error        = error encountered, or null.
+     */
+    public Result(File file, int maxHeight, AnalysisBudget.Kind exhausted, long parseTime,
+        long analysisTime, Exception error) {
+      this.file = file;
+      this.maxHeight = maxHeight;
+      this.exhausted = exhausted;
+      this.parseTime = parseTime;
+      this.analysisTime = analysisTime;
+      this.error = error;
+    }
+
+    /**
+     * Get the file from which the image was read.
+     *
+     * @return file = firmware image file.
+     */
+    public File getFile() {
+      return this.file;
+    }
+
+    /**
+     * Get the maximum stack height of the image.
+     *
+     * @return maxHeight = height of stack, or Integer.MAX_VALUE if unbounded.
+     */
+    public int getMaxHeight() {
+      return this.maxHeight;
+    }
+
+    /**
+     * Get the limit exceeded whilst analysing the image, in which case the
+     * stack was reported as unbounded.
+     *
+     * @return exhausted = limit exceeded, or null if the analysis completed.
+     */
+    public AnalysisBudget.Kind getExhausted() {
+      return this.exhausted;
+    }
+
+    /**
+     * Get the time taken to parse the image.
+     *
+     * @return parseTime = time in nanoseconds.
+     */
+    public long getParseTime() {
+      return this.parseTime;
+    }
+
+    /**
+     * Get the time taken to analyse the image.
+     *
+     * @return analysisTime = time in nanoseconds.
+     */
+    public long getAnalysisTime() {
+      return this.analysisTime;
+    }
+
+    /**
+     * Get the error which prevented the image from being analysed.
+     *
+     * @return error = error encountered, or null if successful.
+     */
+    public Exception getError() {
+      return this.error;
+    }
+
+    /**
+     * Render this result as a single tab-separated line, giving the file, the
+     * maximum stack height and the parse and analysis times in milliseconds.
+     *
+     * @return line = rendered result.
+     */
+    @Override
+    public String toString() {
+      String height;
+      if (this.error != null) {
+        height = "error: " + this.error.getMessage();
+      } else if (this.exhausted != null) {
+        height = "unbounded (" + this.exhausted + " budget exhausted)";
+      } else if (this.maxHeight == Integer.MAX_VALUE) {
+        height = "unbounded";
+      } else {
+        height = Integer.toString(this.maxHeight);
+      }
+      return this.file.getPath() + "\t" + height + "\t" + toMillis(this.parseTime) + "ms\t"
+          + toMillis(this.analysisTime) + "ms";
+    }
+
+    /**
+     * Convert a time in nanoseconds into milliseconds.
+     *
+     * @param nanos = time in nanoseconds.
+     * @return millis = time in milliseconds, to two decimal places.
+     */
+    private static String toMillis(long nanos) {
+      return String.format("%.2f", Double.valueOf(nanos / 1e6));
+    }
+  }
+
+  /**
+   * The number of threads on which images are analysed.
+   */
+  private final int threads;
+
+  /**
+   * Limits the work performed on each image.
+   */
+  private final AnalysisBudget budget;
+
+  /**
+   * The cache of results shared by every image, or null.
+   */
+  private final AnalysisCache cache;
+
+  /**
+   * Constructor for Batch Analysis class.
+   *
+   * @param threads = number of threads on which to analyse images.
+   */
+  public BatchAnalysis(int threads) {
+    this(threads, AnalysisBudget.UNLIMITED);
+  }
+
+  /**
+   * Constructor for Batch Analysis class.
+   *
+   * @param threads = number of threads on which to analyse images.
+   * @param budget  = limits on the work performed on each image.
+   */
+  public BatchAnalysis(int threads, AnalysisBudget budget) {
+    this(threads, budget, null);
+  }
+
+  /**
+   * Constructor for Batch Analysis class.
+   *
+   * @param threads = number of threads on which to analyse images.
+   * @param budget  = limits on the work performed on each image.
+   * @param cache   = cache of results shared by every image, or null.
+   */
+  public BatchAnalysis(int threads, AnalysisBudget budget, AnalysisCache cache) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("invalid number of threads: " + threads);
+    }
+    this.threads = threads;
+    this.budget = budget;
+    this.cache = cache;
+  }
+
+  /**
+   * Analyse a given list of firmware images. Results are passed to the listener
+   * in the order in which images finish, rather than the order given.
+   *
+   * @param files    = firmware image files to analyse.
+   * @param listener = listener to receive each result.
+   * @throws InterruptedException if interrupted while waiting for results.
+   */
+  public void run(List<File> files, Listener listener) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+    final AnalysisBudget limits = this.budget;
+    final AnalysisCache results = this.cache;
+    try {
+      CompletionService<Result> service = new ExecutorCompletionService<Result>(executor);
+      for (final File file : files) {
+        service.submit(new Callable<Result>() {
+          @Override
+          public Result call() {
+            return analyse(file, limits, results);
+          }
+        });
+      }
+      for (int i = 0; i < files.size(); i++) {
+        try {
+          listener.finished(service.take().get());
+        } catch (ExecutionException e) {
+          // Cannot happen, since analyse() catches everything.
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Analyse a single firmware image, recording how long it takes to parse and
+   * to analyse.
+   *
+   * @param file = firmware image file.
+   * @return result = result for the image.
+   */
+  public static Result analyse(File file) {
+    return analyse(file, AnalysisBudget.UNLIMITED);
+  }
+
+  /**
+   * Analyse a single firmware image within a given budget, recording how long
+   * it takes to parse and to analyse.
+   *
+   * @param file   = firmware image file.
+   * @param budget = limits on the work performed.
+   * @return result = result for the image.
+   */
+  public static Result analyse(File file, AnalysisBudget budget) {
+    return analyse(file, budget, null);
+  }
+
+  /**
+   * Analyse a single firmware image within a given budget, recording how long
+   * it takes to parse and to analyse. If the cache holds the results for the
+   * image, then these are used instead.
+   *
+   * @param file   = firmware image file.
+   * @param budget = limits on the work performed.
+   * @param cache  = cache of results, or null.
+   * @return result = result for the image.
+   */
+  public static Result analyse(File file, AnalysisBudget budget, AnalysisCache cache) {
+    long start = System.nanoTime();
+    long parsed = start;
+    try {
+      byte[] flash = HexLoader.load(file);
+      parsed = System.nanoTime();
+      StackAnalysis analysis = new StackAnalysis(flash);
+      analysis.setBudget(budget);
+      analysis.setCache(cache);
+      int height = analysis.apply();
+      return new Result(file, height, analysis.getExhausted(), parsed - start,
+          System.nanoTime() - parsed, null);
+    } catch (Exception e) {
+      long now = System.nanoTime();
+      if (parsed == start) {
+        // Failed whilst parsing
+        return new Result(file, Integer.MAX_VALUE, null, now - start, 0, e);
+      }
+      return new Result(file, Integer.MAX_VALUE, null, parsed - start, now - parsed, e);
+    }
+  }
+
+  /**
+   * Expand a given list of paths into firmware image files. Directories are
+   * replaced by the ".hex" files they contain (in name order), whilst other
+   * paths are kept as they are.
+   *
+   * @param paths = files or directories.
+   * @return files = firmware image files.
+   */
+  public static List<File> collect(List<File> paths) {
+    ArrayList<File> files = new ArrayList<File>();
+    for (File path : paths) {
+      if (path.isDirectory()) {
+        File[] contents = path.listFiles();
+        if (contents == null) {
+          continue;
+        }
+        Arrays.sort(contents);
+        for (File file : contents) {
+          if (file.isFile() && file.getName().endsWith(".hex")) {
+            files.add(file);
+          }
+        }
+      } else {
+        files.add(path);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Command-line entry point. Usage:
+   *
+   * <pre>
+   * java avranalysis.core.BatchAnalysis [-j threads] [-max bytes] [-states n]
+   *     [-time ms] [-depth n] [-cache dir] (file|dir)+
+   * </pre>
+   *
+   * <p>
+   * One line is printed for each image as it finishes. The exit status is zero
+   * if every image was analysed and (when -max is given) none exceeds the given
+   * stack budget, and one otherwise. The -states, -time and -depth options
+   * limit the work performed on each image, so that one pathological image
+   * cannot stall the whole batch; an image which exceeds them is reported as
+   * unbounded. The -cache option keeps the results for each image in a given
+   * directory, so that images which have not changed since a previous run are
+   * not analysed again.
+   * </p>
+   *
+   * @param args = command-line arguments.
+   * @throws InterruptedException if interrupted while waiting for results.
+   * @throws IOException          if the cache directory cannot be created.
+   */
+  public static void main(String[] args) throws InterruptedException, IOException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    int budget = Integer.MAX_VALUE;
+    long maxStates = Long.MAX_VALUE;
+    long maxTime = Long.MAX_VALUE;
+    int maxCallDepth = Integer.MAX_VALUE;
+    AnalysisCache cache = null;
+    ArrayList<File> paths = new ArrayList<File>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-j") && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-max") && i + 1 < args.length) {
+        budget = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-states") && i + 1 < args.length) {
+        maxStates = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-time") && i + 1 < args.length) {
+        maxTime = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-depth") && i + 1 < args.length) {
+        maxCallDepth = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-cache") && i + 1 < args.length) {
+        cache = new AnalysisCache(new File(args[++i]));
+      } else {
+        paths.add(new File(args[i]));
+      }
+    }
+    if (paths.isEmpty()) {
+      System.err.println("usage: BatchAnalysis [-j threads] [-max bytes] [-states n] [-time ms]"
+          + " [-depth n] [-cache dir] (file|dir)+");
+      System.exit(2);
+    }
+    final PrintStream out = System.out;
+    final int limit = budget;
+    final boolean[] failed = new boolean[1];
+    long start = System.nanoTime();
+    List<File> files = collect(paths);
+    AnalysisBudget limits = new AnalysisBudget(maxStates, maxTime, maxCallDepth);
+    new BatchAnalysis(threads, limits, cache).run(files, new Listener() {
+      @Override
+      public void finished(Result result) {
+        out.println(result);
+        if (result.getError() != null || result.getMaxHeight() > limit) {
+          failed[0] = true;
+        }
+      }
+    });
+    out.println(files.size() + " images in " + Result.toMillis(System.nanoTime() - start) + "ms");
+    System.exit(failed[0] ? 1 : 0);
+  }
+}
@@ -0,0 +1,392 @@
+package avranalysis.core;
+
+import java.util.Arrays;
+
+/**
+ * The basic blocks of a firmware image, and the control flow edges between
+ * them. A block begins at a leader (the start of the image, the target of a
+ * branch, jump or call, or the instruction following one which transfers
+ * control) and extends over straight-line instructions, which either leave the
+ * stack alone or push or pop a single byte. It ends with the first instruction
+ * which transfers control or manipulates the frame pointer, or just before the
+ * next leader. The net change in height across the straight-line instructions,
+ * and the greatest height reached among them, are computed once when the
+ * graph is built. Hence, the analyses can move a whole block at a time rather
+ * than one instruction at a time.
+ *
+ * <p>
+ * The height on entry to every successor of a block is the height after its
+ * straight-line instructions, unless the block ends with an instruction which
+ * manipulates the frame pointer. Such an instruction must be processed
+ * separately, since its effect depends on the value of the frame pointer.
+ * </p>
+ *
+ * <p>
+ * The back edges of the graph are found by a depth-first search over the
+ * blocks, in address order. Every cycle includes at least one back edge, and
+ * the block it enters is a loop head, so an analysis need only check for
+ * growth around loops when it follows a back edge.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+final class BlockGraph {
+  /**
+   * The index of the block beginning at each word address, or -1.
+   */
+  private final int[] blocks;
+
+  /**
+   * The address of the first instruction of each block.
+   */
+  private final int[] starts;
+
+  /**
+   * The address of the last instruction of each block.
+   */
+  private final int[] lasts;
+
+  /**
+   * The number of instructions in each block.
+   */
+  private final int[] lengths;
+
+  /**
+   * The net change in stack height across the straight-line instructions of
+   * each block.
+   */
+  private final int[] nets;
+
+  /**
+   * The greatest stack height reached after any straight-line instruction of
+   * each block, relative to the height on entry (and never negative).
+   */
+  private final int[] peaks;
+
+  /**
+   * The index of the first successor of each block in the edges array, with an
+   * extra entry marking the end of the last block's successors.
+   */
+  private final int[] firstEdges;
+
+  /**
+   * The entry address of the successor at the end of each edge. Successors
+   * outside the image are omitted.
+   */
+  private final int[] edges;
+
+  /**
+   * Indicates whether each edge is a back edge, which returns to a block that
+   * is still being searched from.
+   */
+  private final boolean[] backs;
+
+  /**
+   * Constructor for Block Graph class.
+   *
+   * @param table = pre-decoded instructions of the firmware image.
+   */
+  BlockGraph(InstructionTable table) {
+    int words = table.size();
+    boolean[] leaders = findLeaders(table);
+    this.blocks = new int[words];
+    Arrays.fill(this.blocks, -1);
+    int count = 0;
+    for (int pc = 0; pc < words; pc++) {
+      if (leaders[pc]) {
+        this.blocks[pc] = count++;
+      }
+    }
+    this.starts = new int[count];
+    this.lasts = new int[count];
+    this.lengths = new int[count];
+    this.nets = new int[count];
+    this.peaks = new int[count];
+    this.firstEdges = new int[count + 1];
+    int[] targets = new int[2 * count];
+    int edgeCount = 0;
+    for (int pc = 0, b = 0; b < count; pc++) {
+      if (!leaders[pc]) {
+        continue;
+      }
+      this.starts[b] = pc;
+      this.firstEdges[b] = edgeCount;
+      // Move over the straight-line instructions of the block
+      int last = pc;
+      int net = 0;
+      int peak = 0;
+      int length = 1;
+      while (isStraight(table.getFlow(last))) {
+        net += delta(table.getFlow(last));
+        peak = Math.max(peak, net);
+        int next = last + table.getWidth(last);
+        if (next >= words || leaders[next]) {
+          break;
+        }
+        last = next;
+        length++;
+      }
+      this.lasts[b] = last;
+      this.lengths[b] = length;
+      this.nets[b] = net;
+      this.peaks[b] = peak;
+      // Determine the successors of the last instruction
+      int next = last + table.getWidth(last);
+      int target = table.getTarget(last);
+      switch (table.getFlow(last)) {
+        case BRANCH:
+        case SKIP: {
+          edgeCount = addEdge(targets, edgeCount, target, words);
+          edgeCount = addEdge(targets, edgeCount, next, words);
+          break;
+        }
+        case JUMP:
+        case INDIRECT_JUMP: {
+          edgeCount = addEdge(targets, edgeCount, target, words);
+          break;
+        }
+        case RETURN:
+          break;
+        default: {
+          // Includes calls, which return to the following instruction
+          edgeCount = addEdge(targets, edgeCount, next, words);
+        }
+      }
+      b++;
+    }
+    this.firstEdges[count] = edgeCount;
+    this.edges = Arrays.copyOf(targets, edgeCount);
+    this.backs = findBackEdges();
+  }
+
+  /**
+   * Get the number of blocks in the image.
+   *
+   * @return size = number of blocks.
+   */
+  int size() {
+    return this.starts.length;
+  }
+
+  /**
+   * Get the index of the block beginning at a given word address.
+   *
+   * @param pc = program counter.
+   * @return block = index of block, or -1 if pc is not a leader.
+   */
+  int getBlock(int pc) {
+    return this.blocks[pc];
+  }
+
+  /**
+   * Get the address of the first instruction of a given block.
+   *
+   * @param block = index of block.
+   * @return pc = address of first instruction.
+   */
+  int getStart(int block) {
+    return this.starts[block];
+  }
+
+  /**
+   * Get the address of the last instruction of a given block. This either
+   * transfers control (or manipulates the frame pointer), or is a straight-line
+   * instruction which falls through to the next block.
+   *
+   * @param block = index of block.
+   * @return pc = address of last instruction.
+   */
+  int getLast(int block) {
+    return this.lasts[block];
+  }
+
+  /**
+   * Get the number of instructions in a given block.
+   *
+   * @param block = index of block.
+   * @return length = number of instructions.
+   */
+  int getLength(int block) {
+    return this.lengths[block];
+  }
+
+  /**
+   * Get the net change in stack height across the straight-line instructions
+   * of a given block.
+   *
+   * @param block = index of block.
+   * @return net = change in height (in bytes).
+   */
+  int getNet(int block) {
+    return this.nets[block];
+  }
+
+  /**
+   * Get the greatest stack height reached after any straight-line instruction
+   * of a given block, relative to the height on entry.
+   *
+   * @param block = index of block.
+   * @return peak = height (in bytes), which is never negative.
+   */
+  int getPeak(int block) {
+    return this.peaks[block];
+  }
+
+  /**
+   * Get the index of the first edge leaving a given block. The edges leaving
+   * block b are those from getFirstEdge(b) up to (but not including)
+   * getFirstEdge(b + 1).
+   *
+   * @param block = index of block, or size() for the end of the last block.
+   * @return edge = index of edge.
+   */
+  int getFirstEdge(int block) {
+    return this.firstEdges[block];
+  }
+
+  /**
+   * Get the entry address of the successor at the end of a given edge.
+   *
+   * @param edge = index of edge.
+   * @return pc = address of successor block.
+   */
+  int getSuccessor(int edge) {
+    return this.edges[edge];
+  }
+
+  /**
+   * Check whether a given edge is a back edge, which closes a cycle by
+   * returning to a loop head.
+   *
+   * @param edge = index of edge.
+   * @return true if back edge, false otherwise.
+   */
+  boolean isBackEdge(int edge) {
+    return this.backs[edge];
+  }
+
+  /**
+   * Check whether instructions of a given class can be part of a straight-line
+   * run, in which control always passes to the following instruction and the
+   * stack height changes by a fixed amount.
+   *
+   * @param flow = control flow class.
+   * @return true if straight-line, false otherwise.
+   */
+  static boolean isStraight(ControlFlow flow) {
+    return flow == ControlFlow.NEXT || flow == ControlFlow.PUSH || flow == ControlFlow.POP;
+  }
+
+  /**
+   * Get the change in stack height made by a straight-line instruction.
+   *
+   * @param flow = control flow class of the instruction.
+   * @return delta = change in height (in bytes).
+   */
+  static int delta(ControlFlow flow) {
+    switch (flow) {
+      case PUSH:
+        return 1;
+      case POP:
+        return -1;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Determine the leaders of the image, at which blocks begin.
+   *
+   * @param table = pre-decoded instructions of the firmware image.
+   * @return leaders = whether each word address is a leader.
+   */
+  private static boolean[] findLeaders(InstructionTable table) {
+    int words = table.size();
+    boolean[] leaders = new boolean[words];
+    if (words > 0) {
+      leaders[0] = true;
+    }
+    for (int pc = 0; pc < words; pc++) {
+      ControlFlow flow = table.getFlow(pc);
+      if (isStraight(flow)) {
+        continue;
+      }
+      int target = table.getTarget(pc);
+      if (target >= 0 && target < words) {
+        leaders[target] = true;
+      }
+      int next = pc + table.getWidth(pc);
+      if (next < words) {
+        leaders[next] = true;
+      }
+    }
+    return leaders;
+  }
+
+  /**
+   * Determine the back edges of the graph, using an iterative depth-first
+   * search from each block not yet visited, in address order. An edge is a back
+   * edge when it returns to a block on the current search path.
+   *
+   * @return backs = whether each edge is a back edge.
+   */
+  private boolean[] findBackEdges() {
+    int count = size();
+    boolean[] backs = new boolean[this.edges.length];
+    // Each block is unvisited (0), on the search path (1) or finished (2)
+    byte[] states = new byte[count];
+    // The search path, with the next edge to follow from each block on it
+    int[] path = new int[count];
+    int[] nextEdges = new int[count];
+    for (int root = 0; root < count; root++) {
+      if (states[root] != 0) {
+        continue;
+      }
+      int depth = 0;
+      path[0] = root;
+      nextEdges[0] = this.firstEdges[root];
+      states[root] = 1;
+      while (depth >= 0) {
+        int block = path[depth];
+        int e = nextEdges[depth];
+        if (e == this.firstEdges[block + 1]) {
+          // Every successor has been searched
+          states[block] = 2;
+          depth--;
+          continue;
+        }
+        nextEdges[depth]++;
+        int successor = this.blocks[this.edges[e]];
+        if (successor < 0) {
+          // Every successor begins a block, so this is only a safeguard
+          continue;
+        } else if (states[successor] == 1) {
+          backs[e] = true;
+        } else if (states[successor] == 0) {
+          states[successor] = 1;
+          depth++;
+          path[depth] = successor;
+          nextEdges[depth] = this.firstEdges[successor];
+        }
+      }
+    }
+    return backs;
+  }
+
+  /**
+   * Add an edge to a successor, unless it lies outside the image.
+   *
+   * @param targets = successors of the edges added so far.
+   * @param count   = number of edges added so far.
+   * @param target  = address of successor.
+   * @param words   = number of words in the image.
+   * @return count = number of edges after adding this one.
+   */
+  private static int addEdge(int[] targets, int count, int target, int words) {
+    if (target >= 0 && target < words) {
+      targets[count++] = target;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,116 @@
+package avranalysis.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks the work performed by a single application of the analysis against
+ * its budget. Work is charged in batches, so that the clock is not read for
+ * every state explored. A tracker may be shared between threads, and records
+ * the first limit to be exceeded.
+ *
+ * @author Caitlin
+ *
+ */
+final class BudgetTracker {
+  /**
+   * The budget being tracked.
+   */
+  private final AnalysisBudget budget;
+
+  /**
+   * The time (as given by System.nanoTime()) at which the time limit expires.
+   */
+  private final long deadline;
+
+  /**
+   * Indicates whether the budget has a time limit.
+   */
+  private final boolean timed;
+
+  /**
+   * The number of states explored so far.
+   */
+  private final AtomicLong states = new AtomicLong();
+
+  /**
+   * The first limit to be exceeded, or null.
+   */
+  private final AtomicReference<AnalysisBudget.Kind> exhausted =
+      new AtomicReference<AnalysisBudget.Kind>();
+
+  /**
+   * Constructor for Budget Tracker class. The clock starts immediately.
+   *
+   * @param budget = budget to track.
+   */
+  BudgetTracker(AnalysisBudget budget) {
+    this.budget = budget;
+    this.timed = budget.getMaxTime() < Long.MAX_VALUE / 1000000;
+    this.deadline = this.timed ? System.nanoTime() + budget.getMaxTime() * 1000000 : 0;
+  }
+
+  /**
+   * Charge a number of explored states against the budget, and check whether
+   * any limit has now been exceeded.
+   *
+   * @param count = number of states explored.
+   * @return true if the analysis may continue, false otherwise.
+   */
+  boolean charge(long count) {
+    if (this.exhausted.get() != null) {
+      return false;
+    }
+    if (this.states.addAndGet(count) > this.budget.getMaxStates()) {
+      exhaust(AnalysisBudget.Kind.STATES);
+      return false;
+    }
+    if (this.timed && System.nanoTime() - this.deadline >= 0) {
+      exhaust(AnalysisBudget.Kind.TIME);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Check whether a given depth of nested calls exceeds the budget.
+   *
+   * @param depth = depth of nested calls.
+   * @return true if the analysis may continue, false otherwise.
+   */
+  boolean checkCallDepth(int depth) {
+    if (depth > this.budget.getMaxCallDepth()) {
+      exhaust(AnalysisBudget.Kind.CALL_DEPTH);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Record that a given limit has been exceeded, unless another has already
+   * been exceeded first.
+   *
+   * @param kind = limit exceeded.
+   */
+  void exhaust(AnalysisBudget.Kind kind) {
+    this.exhausted.compareAndSet(null, kind);
+  }
+
+  /**
+   * Check whether any limit has been exceeded.
+   *
+   * @return true if exhausted, false otherwise.
+   */
+  boolean isExhausted() {
+    return this.exhausted.get() != null;
+  }
+
+  /**
+   * Get the first limit to be exceeded.
+   *
+   * @return kind = limit exceeded, or null if none.
+   */
+  AnalysisBudget.Kind getExhausted() {
+    return this.exhausted.get();
+  }
+}
@@ -0,0 +1,331 @@
+package avranalysis.core;
+
+import avranalysis.util.IntQueue;
+import java.util.Arrays;
+
+/**
+ * The call graph of a firmware image. Each node is a function, identified by
+ * its entry address, and there is an edge from a function to every function it
+ * calls directly. The strongly connected components of the graph are computed
+ * on construction, so that recursive functions can be identified without
+ * exploring the cycles between them.
+ *
+ * <p>
+ * Components are numbered in reverse topological order, meaning that the
+ * functions called from a component always belong to the same component or to
+ * one with a lower number. Processing components in increasing order is
+ * therefore a bottom-up pass over the call graph.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+public class CallGraph {
+  /**
+   * The entry address of each node, in ascending order.
+   */
+  private final int[] nodes;
+
+  /**
+   * The indices of the nodes called from each node.
+   */
+  private final int[][] callees;
+
+  /**
+   * The indices of the nodes which call each node.
+   */
+  private final int[][] callers;
+
+  /**
+   * The component to which each node belongs.
+   */
+  private final int[] components;
+
+  /**
+   * The indices of the nodes in each component.
+   */
+  private final int[][] members;
+
+  /**
+   * Records which nodes are recursive, i.e. can call themselves either directly
+   * or indirectly.
+   */
+  private final boolean[] recursive;
+
+  /**
+   * Constructor for Call Graph class.
+   *
+   * @param entries = entry address of each function.
+   * @param calls   = entry addresses of the functions called from each function.
+   */
+  public CallGraph(int[] entries, int[][] calls) {
+    int size = entries.length;
+    // Sort the nodes by entry address, so they can be found by binary search.
+    this.nodes = entries.clone();
+    Arrays.sort(this.nodes);
+    this.callees = new int[size][];
+    int[] counts = new int[size];
+    for (int i = 0; i < size; i++) {
+      int from = indexOf(entries[i]);
+      IntQueue edges = new IntQueue();
+      for (int entry : calls[i]) {
+        int to = indexOf(entry);
+        if (to < 0) {
+          throw new IllegalArgumentException("unknown function " + Integer.toHexString(entry));
+        }
+        edges.add(to);
+        counts[to]++;
+      }
+      this.callees[from] = toArray(edges);
+    }
+    // Invert the edges to determine the callers of each node
+    this.callers = new int[size][];
+    for (int i = 0; i < size; i++) {
+      this.callers[i] = new int[counts[i]];
+      counts[i] = 0;
+    }
+    for (int i = 0; i < size; i++) {
+      for (int to : this.callees[i]) {
+        this.callers[to][counts[to]++] = i;
+      }
+    }
+    // Compute the strongly connected components
+    this.components = new int[size];
+    this.members = tarjan();
+    this.recursive = new boolean[size];
+    for (int[] component : this.members) {
+      for (int node : component) {
+        this.recursive[node] = component.length > 1
+            || Arrays.binarySearch(this.callees[node], node) >= 0;
+      }
+    }
+  }
+
+  /**
+   * Get the number of functions in this call graph.
+   *
+   * @return size = number of nodes.
+   */
+  public int size() {
+    return this.nodes.length;
+  }
+
+  /**
+   * Get the entry addresses of all functions in this call graph.
+   *
+   * @return nodes = entry addresses in ascending order.
+   */
+  public int[] getNodes() {
+    return this.nodes.clone();
+  }
+
+  /**
+   * Check whether a function with a given entry address is in this call graph.
+   *
+   * @param entry = entry address of function.
+   * @return true if present, false otherwise.
+   */
+  public boolean contains(int entry) {
+    return indexOf(entry) >= 0;
+  }
+
+  /**
+   * Get the entry addresses of the functions called directly from a function.
+   *
+   * @param entry = entry address of function.
+   * @return callees = entry addresses of functions called.
+   */
+  public int[] getCallees(int entry) {
+    return toEntries(this.callees[node(entry)]);
+  }
+
+  /**
+   * Get the entry addresses of the functions which call a function directly.
+   *
+   * @param entry = entry address of function.
+   * @return callers = entry addresses of calling functions.
+   */
+  public int[] getCallers(int entry) {
+    return toEntries(this.callers[node(entry)]);
+  }
+
+  /**
+   * Get the number of strongly connected components in this call graph.
+   *
+   * @return count = number of components.
+   */
+  public int getComponentCount() {
+    return this.members.length;
+  }
+
+  /**
+   * Get the strongly connected component to which a function belongs.
+   *
+   * @param entry = entry address of function.
+   * @return component = component number.
+   */
+  public int getComponent(int entry) {
+    return this.components[node(entry)];
+  }
+
+  /**
+   * Get the entry addresses of the functions in a given strongly connected
+   * component.
+   *
+   * @param component = component number.
+   * @return members = entry addresses of functions in the component.
+   */
+  public int[] getMembers(int component) {
+    return toEntries(this.members[component]);
+  }
+
+  /**
+   * Check whether a function is recursive, i.e. whether it can call itself
+   * either directly or through other functions.
+   *
+   * @param entry = entry address of function.
+   * @return true if recursive, false otherwise.
+   */
+  public boolean isRecursive(int entry) {
+    return this.recursive[node(entry)];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < this.nodes.length; i++) {
+      builder.append(Integer.toHexString(this.nodes[i]));
+      builder.append(" ->");
+      for (int callee : this.callees[i]) {
+        builder.append(' ');
+        builder.append(Integer.toHexString(this.nodes[callee]));
+      }
+      builder.append('\n');
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Compute the strongly connected components of this graph using Tarjan's
+   * algorithm. The depth-first search is performed with an explicit stack, so
+   * that deep call chains cannot overflow the Java stack.
+   *
+   * @return members = the nodes in each component, in reverse topological order.
+   */
+  private int[][] tarjan() {
+    int size = this.nodes.length;
+    int[] index = new int[size];
+    int[] lowlink = new int[size];
+    boolean[] onStack = new boolean[size];
+    Arrays.fill(index, -1);
+    // The depth-first search stack of nodes, and the next edge of each
+    int[] dfsNodes = new int[size];
+    int[] dfsEdges = new int[size];
+    // The stack of nodes whose component is not yet known
+    int[] stack = new int[size];
+    int[][] result = new int[size][];
+    int count = 0;
+    int counter = 0;
+    int top = 0;
+    for (int root = 0; root < size; root++) {
+      if (index[root] >= 0) {
+        continue;
+      }
+      int depth = 0;
+      dfsNodes[depth] = root;
+      dfsEdges[depth++] = 0;
+      index[root] = lowlink[root] = counter++;
+      stack[top++] = root;
+      onStack[root] = true;
+      while (depth > 0) {
+        int node = dfsNodes[depth - 1];
+        int[] edges = this.callees[node];
+        if (dfsEdges[depth - 1] < edges.length) {
+          int next = edges[dfsEdges[depth - 1]++];
+          if (index[next] < 0) {
+            // Not yet visited, so descend into it.
+            dfsNodes[depth] = next;
+            dfsEdges[depth++] = 0;
+            index[next] = lowlink[next] = counter++;
+            stack[top++] = next;
+            onStack[next] = true;
+          } else if (onStack[next]) {
+            lowlink[node] = Math.min(lowlink[node], index[next]);
+          }
+        } else {
+          // All edges visited, so return to the parent.
+          depth--;
+          if (depth > 0) {
+            int parent = dfsNodes[depth - 1];
+            lowlink[parent] = Math.min(lowlink[parent], lowlink[node]);
+          }
+          if (lowlink[node] == index[node]) {
+            // Node is the root of a component, so pop its members.
+            int start = top;
+            do {
+              onStack[stack[--start]] = false;
+              this.components[stack[start]] = count;
+            } while (stack[start] != node);
+            result[count++] = Arrays.copyOfRange(stack, start, top);
+            top = start;
+          }
+        }
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Get the index of the node with a given entry address.
+   *
+   * @param entry = entry address of function.
+   * @return index = index of node, or a negative value if not present.
+   */
+  private int indexOf(int entry) {
+    return Arrays.binarySearch(this.nodes, entry);
+  }
+
+  /**
+   * Get the index of the node with a given entry address, which must be
+   * present.
+   *
+   * @param entry = entry address of function.
+   * @return index = index of node.
+   */
+  private int node(int entry) {
+    int index = indexOf(entry);
+    if (index < 0) {
+      throw new IllegalArgumentException("unknown function " + Integer.toHexString(entry));
+    }
+    return index;
+  }
+
+  /**
+   * Convert an array of node indices into their entry addresses.
+   *
+   * @param indices = node indices.
+   * @return entries = entry addresses.
+   */
+  private int[] toEntries(int[] indices) {
+    int[] entries = new int[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      entries[i] = this.nodes[indices[i]];
+    }
+    return entries;
+  }
+
+  /**
+   * Drain a queue of distinct node indices into a sorted array.
+   *
+   * @param queue = queue of node indices.
+   * @return array = sorted node indices.
+   */
+  private static int[] toArray(IntQueue queue) {
+    int[] array = new int[queue.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = queue.poll();
+    }
+    Arrays.sort(array);
+    return array;
+  }
+}
@@ -0,0 +1,150 @@
+package avranalysis.core;
+
+import javr.core.AvrInstruction.Opcode;
+
+/**
+ * Classifies instructions by how they transfer control and affect the stack.
+ * Every opcode belongs to exactly one class, which is determined once when the
+ * firmware image is decoded. The analysis then dispatches on the class rather
+ * than on the opcode, so that adding an opcode to an existing class does not
+ * slow down the traversal.
+ *
+ * @author Caitlin
+ *
+ */
+public enum ControlFlow {
+  /**
+   * Control is transferred to the following instruction.
+   */
+  NEXT,
+  /**
+   * Control is transferred either to the branch target, or to the following
+   * instruction (e.g. BREQ, BRBS).
+   */
+  BRANCH,
+  /**
+   * Control is transferred either to the following instruction, or to the one
+   * after that (e.g. CPSE, SBRS). The skipped instruction may be one or two
+   * words wide.
+   */
+  SKIP,
+  /**
+   * A direct call to the target, after which control returns to the following
+   * instruction (e.g. CALL, RCALL).
+   */
+  CALL,
+  /**
+   * An indirect call through the Z register, after which control returns to the
+   * following instruction (e.g. ICALL, EICALL). The target is resolved when the
+   * image is decoded, if possible.
+   */
+  INDIRECT_CALL,
+  /**
+   * Control is transferred to the jump target only (e.g. JMP, RJMP).
+   */
+  JUMP,
+  /**
+   * Control is transferred through the Z register only (e.g. IJMP, EIJMP). The
+   * target is resolved when the image is decoded, if possible.
+   */
+  INDIRECT_JUMP,
+  /**
+   * Control is returned to the caller (e.g. RET, RETI).
+   */
+  RETURN,
+  /**
+   * A byte is pushed onto the stack, and control passes to the following
+   * instruction.
+   */
+  PUSH,
+  /**
+   * A byte is popped from the stack, and control passes to the following
+   * instruction.
+   */
+  POP,
+  /**
+   * The frame pointer or the stack pointer is manipulated directly, and control
+   * passes to the following instruction (e.g. IN r28, SPL). This depends on
+   * the operands of an instruction, and hence is never the class of an opcode.
+   * Instead, it is assigned to individual instructions as they are decoded.
+   */
+  FRAME;
+
+  /**
+   * The class of each opcode, indexed by ordinal.
+   */
+  private static final ControlFlow[] CLASSES = new ControlFlow[Opcode.values().length];
+
+  static {
+    for (Opcode opcode : Opcode.values()) {
+      CLASSES[opcode.ordinal()] = classify(opcode);
+    }
+  }
+
+  /**
+   * Get the class of a given opcode.
+   *
+   * @param opcode = opcode to classify.
+   * @return flow = class of opcode.
+   */
+  public static ControlFlow of(Opcode opcode) {
+    return CLASSES[opcode.ordinal()];
+  }
+
+  /**
+   * Determine the class of a given opcode.
+   *
+   * @param opcode = opcode to classify.
+   * @return flow = class of opcode.
+   */
+  private static ControlFlow classify(Opcode opcode) {
+    switch (opcode) {
+      case BRBC:
+      case BRBS:
+      case BREQ:
+      case BRGE:
+      case BRHC:
+      case BRHS:
+      case BRID:
+      case BRIE:
+      case BRLO:
+      case BRLT:
+      case BRMI:
+      case BRNE:
+      case BRPL:
+      case BRSH:
+      case BRTC:
+      case BRTS:
+      case BRVC:
+      case BRVS:
+        return BRANCH;
+      case CPSE:
+      case SBIC:
+      case SBIS:
+      case SBRC:
+      case SBRS:
+        return SKIP;
+      case CALL:
+      case RCALL:
+        return CALL;
+      case ICALL:
+      case EICALL:
+        return INDIRECT_CALL;
+      case JMP:
+      case RJMP:
+        return JUMP;
+      case IJMP:
+      case EIJMP:
+        return INDIRECT_JUMP;
+      case RET:
+      case RETI:
+        return RETURN;
+      case PUSH:
+        return PUSH;
+      case POP:
+        return POP;
+      default:
+        return NEXT;
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package avranalysis.core;
+
+/**
+ * An immutable snapshot of a firmware image and the results of analysing it:
+ * the pre-decoded instructions (together with their basic blocks), the call
+ * graph, the summary of every function reached, and the interrupt handlers. A
+ * snapshot is taken from a StackAnalysis once it has been applied without
+ * exhausting its budget (see StackAnalysis.toFirmware()), and is never changed
+ * afterwards, even if the analysis is applied again. Hence, a single snapshot can be shared by any
+ * number of threads, without copying or decoding the image again.
+ *
+ * <p>
+ * Queries which must traverse the image again (e.g. reconstructing the
+ * worst-case path) need scratch state sized to the image, which is held by a
+ * session (see StackSession) rather than by the snapshot. Sessions are cheap
+ * to create, and each thread should use its own.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+public final class Firmware {
+  /**
+   * The pre-decoded instructions of the firmware image.
+   */
+  private final InstructionTable table;
+
+  /**
+   * The summary of each function reached, indexed by entry address.
+   */
+  private final FunctionSummary[] summaries;
+
+  /**
+   * The call graph of the functions reached.
+   */
+  private final CallGraph callGraph;
+
+  /**
+   * The entry addresses of the interrupt handlers.
+   */
+  private final int[] handlers;
+
+  /**
+   * The entry addresses of the functions traversed without tail calls.
+   */
+  private final int[] inlined;
+
+  /**
+   * The maximum stack height of the main program (i.e. from reset).
+   */
+  private final int mainHeight;
+
+  /**
+   * The maximum stack height added by interrupt handlers on top of the main
+   * program.
+   */
+  private final int interruptHeight;
+
+  /**
+   * Constructor for Firmware class. The arrays given are used as they are, so
+   * must not be modified afterwards.
+   *
+   * @param table           = pre-decoded instructions of the firmware image.
+   * @param summaries       = summary of each function reached, indexed by entry
+   *                        address.
+   * @param callGraph       = call graph of the functions reached.
+   * @param handlers        = entry addresses of the interrupt handlers.
+   * @param inlined         = entry addresses of the functions traversed
+   *                        without tail calls.
+   * @param mainHeight      = maximum stack height of the main program.
+   * @param interruptHeight = maximum stack height added by interrupt handlers.
+   */
+  Firmware(InstructionTable table, FunctionSummary[] summaries, CallGraph callGraph,
+      int[] handlers, int[] inlined, int mainHeight, int interruptHeight) {
+    this.table = table;
+    this.summaries = summaries;
+    this.callGraph = callGraph;
+    this.handlers = handlers;
+    this.inlined = inlined;
+    this.mainHeight = mainHeight;
+    this.interruptHeight = interruptHeight;
+  }
+
+  /**
+   * Create a new session for querying this firmware image. A session must not
+   * be shared between threads.
+   *
+   * @return session = new session.
+   */
+  public StackSession newSession() {
+    return new StackSession(this);
+  }
+
+  /**
+   * Get the number of words in the firmware image.
+   *
+   * @return size = number of words.
+   */
+  public int size() {
+    return this.table.size();
+  }
+
+  /**
+   * Get the maximum stack usage of the firmware image, including any interrupt
+   * handlers.
+   *
+   * @return maxHeight = height of stack, or Integer.MAX_VALUE if unbounded.
+   */
+  public int getMaxHeight() {
+    return FunctionTrace.add(this.mainHeight, this.interruptHeight);
+  }
+
+  /**
+   * Get the maximum stack height of the main program alone (i.e. from reset).
+   *
+   * @return mainHeight = height of stack, or Integer.MAX_VALUE if unbounded.
+   */
+  public int getMainHeight() {
+    return this.mainHeight;
+  }
+
+  /**
+   * Get the maximum stack height which interrupt handlers can add on top of the
+   * main program.
+   *
+   * @return interruptHeight = height of stack, or Integer.MAX_VALUE if
+   *         unbounded.
+   */
+  public int getInterruptHeight() {
+    return this.interruptHeight;
+  }
+
+  /**
+   * Get the entry addresses of the interrupt handlers.
+   *
+   * @return handlers = distinct entry addresses in ascending order.
+   */
+  public int[] getInterruptHandlers() {
+    return this.handlers.clone();
+  }
+
+  /**
+   * Get the summary of the function with a given entry address.
+   *
+   * @param entry = entry address of the function.
+   * @return summary = function summary, or null if it was not reached.
+   */
+  public FunctionSummary getSummary(int entry) {
+    if (entry < 0 || entry >= this.summaries.length) {
+      return null;
+    }
+    return this.summaries[entry];
+  }
+
+  /**
+   * Get the call graph of the functions reached.
+   *
+   * @return callGraph = call graph.
+   */
+  public CallGraph getCallGraph() {
+    return this.callGraph;
+  }
+
+  /**
+   * Get the pre-decoded instructions of the firmware image.
+   *
+   * @return table = pre-decoded instructions.
+   */
+  InstructionTable getTable() {
+    return this.table;
+  }
+
+  /**
+   * Get the summaries of the functions reached, which must not be modified.
+   *
+   * @return summaries = summary of each function, indexed by entry address.
+   */
+  FunctionSummary[] getSummaries() {
+    return this.summaries;
+  }
+
+  /**
+   * Get the entry addresses of the interrupt handlers, which must not be
+   * modified.
+   *
+   * @return handlers = distinct entry addresses in ascending order.
+   */
+  int[] getHandlers() {
+    return this.handlers;
+  }
+
+  /**
+   * Get the entry addresses of the functions traversed without tail calls,
+   * which must not be modified.
+   *
+   * @return inlined = entry addresses in ascending order.
+   */
+  int[] getInlined() {
+    return this.inlined;
+  }
+}
@@ -0,0 +1,164 @@
+package avranalysis.core;
+
+import java.util.Arrays;
+
+/**
+ * Interns the pairs of frame pointer values (see FramePointer) reached within
+ * a function, so that each pair can be identified by a small context id. This
+ * lets the state on entry to a program counter be packed into a single long,
+ * rather than held as a height and two separate values. Very few distinct
+ * pairs arise within a function (most instructions see the pair in which both
+ * halves are UNKNOWN), so the table stays small.
+ *
+ * <p>
+ * Pairs are found through an open-addressed hash table. The table is cleared
+ * between functions, except for the pair in which both halves are UNKNOWN,
+ * which always has id zero.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+final class FrameContexts {
+  /**
+   * The id of the pair in which both halves of the frame pointer are UNKNOWN.
+   */
+  static final int UNKNOWN = 0;
+
+  /**
+   * The value of the low byte of the frame pointer in each context.
+   */
+  private int[] lows = new int[16];
+
+  /**
+   * The value of the high byte of the frame pointer in each context.
+   */
+  private int[] highs = new int[16];
+
+  /**
+   * The number of contexts interned so far.
+   */
+  private int count;
+
+  /**
+   * The hash table from pairs to ids, holding one more than each id so that
+   * zero marks an empty slot.
+   */
+  private int[] slots = new int[32];
+
+  /**
+   * Constructor for Frame Contexts class.
+   */
+  FrameContexts() {
+    clear();
+  }
+
+  /**
+   * Get the id of the context holding a given pair of values, adding it if
+   * necessary.
+   *
+   * @param low  = value of the low byte.
+   * @param high = value of the high byte.
+   * @return context = id of the context.
+   */
+  int intern(int low, int high) {
+    int mask = this.slots.length - 1;
+    for (int i = hash(low, high) & mask; true; i = (i + 1) & mask) {
+      int id = this.slots[i] - 1;
+      if (id < 0) {
+        return add(i, low, high);
+      } else if (this.lows[id] == low && this.highs[id] == high) {
+        return id;
+      }
+    }
+  }
+
+  /**
+   * Join two contexts arriving at the same program counter.
+   *
+   * @param lhs = id of first context.
+   * @param rhs = id of second context.
+   * @return context = id of the joined context.
+   */
+  int join(int lhs, int rhs) {
+    if (lhs == rhs) {
+      return lhs;
+    }
+    return intern(FramePointer.join(this.lows[lhs], this.lows[rhs]),
+        FramePointer.join(this.highs[lhs], this.highs[rhs]));
+  }
+
+  /**
+   * Get the value of the low byte of the frame pointer in a given context.
+   *
+   * @param context = id of the context.
+   * @return value = abstract value.
+   */
+  int getLow(int context) {
+    return this.lows[context];
+  }
+
+  /**
+   * Get the value of the high byte of the frame pointer in a given context.
+   *
+   * @param context = id of the context.
+   * @return value = abstract value.
+   */
+  int getHigh(int context) {
+    return this.highs[context];
+  }
+
+  /**
+   * Remove every context, except the one in which both halves are UNKNOWN.
+   */
+  void clear() {
+    Arrays.fill(this.slots, 0);
+    this.count = 0;
+    intern(FramePointer.UNKNOWN, FramePointer.UNKNOWN);
+  }
+
+  /**
+   * Add a context for a given pair at a given empty slot, growing the tables
+   * if necessary.
+   *
+   * @param slot = index of the empty slot for the pair.
+   * @param low  = value of the low byte.
+   * @param high = value of the high byte.
+   * @return context = id of the new context.
+   */
+  private int add(int slot, int low, int high) {
+    int id = this.count++;
+    if (id == this.lows.length) {
+      this.lows = Arrays.copyOf(this.lows, id * 2);
+      this.highs = Arrays.copyOf(this.highs, id * 2);
+    }
+    this.lows[id] = low;
+    this.highs[id] = high;
+    this.slots[slot] = id + 1;
+    if (this.count * 2 > this.slots.length) {
+      // Keep the table at most half full, so that probe sequences stay short
+      this.slots = new int[this.slots.length * 2];
+      int mask = this.slots.length - 1;
+      for (int j = 0; j < this.count; j++) {
+        int i = hash(this.lows[j], this.highs[j]) & mask;
+        while (this.slots[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        this.slots[i] = j + 1;
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Compute the hash of a pair of values.
+   *
+   * @param low  = value of the low byte.
+   * @param high = value of the high byte.
+   * @return hash = hash code.
+   */
+  private static int hash(int low, int high) {
+    int h = low * 31 + high;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,208 @@
+package avranalysis.core;
+
+import javr.core.AvrInstruction;
+
+/**
+ * The abstract domain used to track the frame pointer (i.e. the Y register
+ * pair r29:r28) through the stack frame idioms generated by avr-gcc. A typical
+ * prologue reads the stack pointer into Y, lowers Y by the size of the frame
+ * and writes it back to the stack pointer:
+ *
+ * <pre>
+ * in r28, SPL
+ * in r29, SPH
+ * sbiw r28, 4
+ * out SPH, r29
+ * out SPL, r28
+ * </pre>
+ *
+ * <p>
+ * Each half of Y is abstracted independently by an int, which is either
+ * UNKNOWN, the corresponding byte of a known constant, or the corresponding
+ * byte of the stack pointer on entry to the function less a known offset. The
+ * latter is exactly the stack height at which the value was read, adjusted by
+ * any arithmetic since, so writing it back to the stack pointer sets the stack
+ * height to the offset. Values which differ on two paths are joined to
+ * UNKNOWN, and writing UNKNOWN to the stack pointer makes the stack unbounded.
+ * Since the low byte alone cannot tell whether a subtraction borrowed from the
+ * high byte, the offset of the whole frame pointer is given by its high byte.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+final class FramePointer {
+  /**
+   * The I/O address of the low byte of the stack pointer.
+   */
+  static final int SPL = 0x3D;
+
+  /**
+   * The I/O address of the high byte of the stack pointer.
+   */
+  static final int SPH = 0x3E;
+
+  /**
+   * The last address of SRAM, where the stack begins (on the ATtiny85).
+   */
+  static final int RAMEND = 0x25F;
+
+  /**
+   * The register holding the low byte of the frame pointer.
+   */
+  static final int YL = 28;
+
+  /**
+   * The register holding the high byte of the frame pointer.
+   */
+  static final int YH = 29;
+
+  /**
+   * Indicates a byte whose value is not known.
+   */
+  static final int UNKNOWN = Integer.MIN_VALUE;
+
+  /**
+   * Tags a byte of the stack pointer on entry less a known offset.
+   */
+  private static final int OFFSET = 0x10000;
+
+  /**
+   * Tags a byte of a known constant.
+   */
+  private static final int CONSTANT = 0x20000;
+
+  /**
+   * Prevent instantiation.
+   */
+  private FramePointer() {
+  }
+
+  /**
+   * Construct the value of a byte of the stack pointer on entry to the function,
+   * less a given offset.
+   *
+   * @param offset = offset from the stack pointer on entry.
+   * @return value = abstract value.
+   */
+  static int offset(int offset) {
+    return OFFSET | (offset & 0xFFFF);
+  }
+
+  /**
+   * Construct the value of a byte of a known constant.
+   *
+   * @param constant = constant value.
+   * @return value = abstract value.
+   */
+  static int constant(int constant) {
+    return CONSTANT | (constant & 0xFF);
+  }
+
+  /**
+   * Check whether a value is a byte of the stack pointer less an offset.
+   *
+   * @param value = abstract value.
+   * @return true if an offset, false otherwise.
+   */
+  static boolean isOffset(int value) {
+    return value != UNKNOWN && (value & OFFSET) != 0;
+  }
+
+  /**
+   * Check whether a value is a byte of a known constant.
+   *
+   * @param value = abstract value.
+   * @return true if a constant, false otherwise.
+   */
+  static boolean isConstant(int value) {
+    return value != UNKNOWN && (value & CONSTANT) != 0;
+  }
+
+  /**
+   * Get the offset from the stack pointer on entry of a given value.
+   *
+   * @param value = abstract value, which must be an offset.
+   * @return offset = signed offset.
+   */
+  static int getOffset(int value) {
+    return (short) value;
+  }
+
+  /**
+   * Get the constant of a given value.
+   *
+   * @param value = abstract value, which must be a constant.
+   * @return constant = unsigned byte.
+   */
+  static int getConstant(int value) {
+    return value & 0xFF;
+  }
+
+  /**
+   * Join two values arriving at the same program counter.
+   *
+   * @param lhs = first value.
+   * @param rhs = second value.
+   * @return value = joined value.
+   */
+  static int join(int lhs, int rhs) {
+    return lhs == rhs ? lhs : UNKNOWN;
+  }
+
+  /**
+   * Determine the stack height which results from writing a given frame
+   * pointer to the stack pointer.
+   *
+   * @param low  = value of the low byte.
+   * @param high = value of the high byte.
+   * @return height = resulting stack height, or Integer.MAX_VALUE if unknown.
+   */
+  static int toHeight(int low, int high) {
+    if (isOffset(low) && isOffset(high)) {
+      // The high byte carries any borrow out of the low byte, so determines the
+      // offset, but the two bytes must agree.
+      int offset = getOffset(high);
+      return ((offset - getOffset(low)) & 0xFF) == 0 ? offset : Integer.MAX_VALUE;
+    } else if (isConstant(low)) {
+      // An absolute stack pointer, as when the stack is first set up
+      int upper = isConstant(high) ? getConstant(high) << 8 : RAMEND & 0xFF00;
+      return Math.max(0, RAMEND - (upper | getConstant(low)));
+    } else {
+      return Integer.MAX_VALUE;
+    }
+  }
+
+  /**
+   * Check whether a given instruction affects the frame pointer or the stack
+   * pointer (other than through PUSH, POP and calls), and hence must be
+   * interpreted over this domain. An RCALL to the very next instruction
+   * (i.e. "rcall .") is included, since avr-gcc uses it to allocate two bytes
+   * of frame.
+   *
+   * @param instruction = instruction to check.
+   * @return true if affected, false otherwise.
+   */
+  static boolean affects(AvrInstruction instruction) {
+    switch (instruction.getOpcode()) {
+      case RCALL:
+        return ((AvrInstruction.RCALL) instruction).k == 0;
+      case OUT: {
+        int port = ((AvrInstruction.OUT) instruction).A;
+        return port == SPL || port == SPH;
+      }
+      default:
+        return writesFramePointer(instruction);
+    }
+  }
+
+  /**
+   * Check whether a given instruction writes either half of the frame pointer.
+   *
+   * @param instruction = instruction to check.
+   * @return true if written, false otherwise.
+   */
+  static boolean writesFramePointer(AvrInstruction instruction) {
+    return RegisterUse.writes(instruction, YL) || RegisterUse.writes(instruction, YH);
+  }
+}
@@ -0,0 +1,114 @@
+package avranalysis.core;
+
+/**
+ * Summarises the stack usage of a single function (i.e. the code reached from
+ * a given entry address, up to its returns). The maximum height is relative to
+ * the stack height on entry, and includes the usage of every function called
+ * (directly or indirectly) from it.
+ *
+ * @author Caitlin
+ *
+ */
+public class FunctionSummary {
+  /**
+   * The entry address of the function.
+   */
+  private final int entry;
+
+  /**
+   * The maximum stack height reached within the function (in bytes), or
+   * Integer.MAX_VALUE if it is unbounded.
+   */
+  private final int maxHeight;
+
+  /**
+   * Indicates whether interrupts may be enabled (by SEI) within the function.
+   */
+  private final boolean enablesInterrupts;
+
+  /**
+   * The distinct entry addresses of the functions called from this function.
+   */
+  private final int[] callees;
+
+  /**
+   * Constructor for Function Summary class.
+   *
+   * @param entry     = entry address of the function.
+   * @param maxHeight = maximum stack height reached within the function.
+   * @param callees   = entry addresses of functions called.
+   */
+  public FunctionSummary(int entry, int maxHeight, int[] callees) {
+    this(entry, maxHeight, false, callees);
+  }
+
+  /**
+   * Constructor for Function Summary class.
+   *
+   * @param entry             = entry address of the function.
+   * @param maxHeight         = maximum stack height reached within the function.
+   * @param enablesInterrupts = whether interrupts may be enabled within the
+   *                          function.
+   * @param callees           = entry addresses of functions called.
+   */
+  public FunctionSummary(int entry, int maxHeight, boolean enablesInterrupts, int[] callees) {
+    this.entry = entry;
+    this.maxHeight = maxHeight;
+    this.enablesInterrupts = enablesInterrupts;
+    this.callees = callees.clone();
+  }
+
+  /**
+   * Get the entry address of the function.
+   *
+   * @return entry = entry address.
+   */
+  public int getEntry() {
+    return this.entry;
+  }
+
+  /**
+   * Get the maximum stack height reached within the function, relative to the
+   * height on entry.
+   *
+   * @return maxHeight = height of stack, or Integer.MAX_VALUE if unbounded.
+   */
+  public int getMaxHeight() {
+    return this.maxHeight;
+  }
+
+  /**
+   * Check whether the stack height reached within the function is unbounded.
+   *
+   * @return true if unbounded, false otherwise.
+   */
+  public boolean isUnbounded() {
+    return this.maxHeight == Integer.MAX_VALUE;
+  }
+
+  /**
+   * Check whether interrupts may be enabled (by SEI) within the function, or
+   * any function it calls. An interrupt handler which does so can itself be
+   * interrupted.
+   *
+   * @return true if interrupts may be enabled, false otherwise.
+   */
+  public boolean enablesInterrupts() {
+    return this.enablesInterrupts;
+  }
+
+  /**
+   * Get the entry addresses of the functions called from this function.
+   *
+   * @return callees = distinct entry addresses.
+   */
+  public int[] getCallees() {
+    return this.callees.clone();
+  }
+
+  @Override
+  public String toString() {
+    String height = isUnbounded() ? "unbounded" : Integer.toString(this.maxHeight);
+    return "function@" + Integer.toHexString(this.entry) + " (" + height + ")";
+  }
+}
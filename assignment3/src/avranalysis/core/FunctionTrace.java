@@ -0,0 +1,153 @@
+package avranalysis.core;
+
+/**
+ * Holds the local results of traversing the body of a single function, before
+ * they are combined with the summaries of the functions it calls.
+ *
+ * @author Caitlin
+ *
+ */
+final class FunctionTrace {
+  /**
+   * The entry address of the function.
+   */
+  final int entry;
+
+  /**
+   * The maximum stack height reached within the function itself, or
+   * Integer.MAX_VALUE if it is unbounded.
+   */
+  final int localHeight;
+
+  /**
+   * The head of the loop at which the local height was found to be unbounded,
+   * or -1.
+   */
+  final int unboundedLoop;
+
+  /**
+   * Indicates whether an SEI instruction is reached within the function itself.
+   */
+  final boolean enablesInterrupts;
+
+  /**
+   * The address of each call site within the function. An indirect call site
+   * appears once for each of its possible targets.
+   */
+  final int[] callSites;
+
+  /**
+   * The target of each call site within the function.
+   */
+  final int[] callTargets;
+
+  /**
+   * The stack height at each call site within the function. This is two bytes
+   * lower for a tail call, since it pushes no return address.
+   */
+  final int[] callHeights;
+
+  /**
+   * Indicates whether each call site is a tail call: an unresolved indirect
+   * jump, or control reaching the entry of a later function (see
+   * FunctionTraversal).
+   */
+  final boolean[] tailCalls;
+
+  /**
+   * The distinct entry addresses (within the image) of the functions called.
+   */
+  final int[] callees;
+
+  /**
+   * The word addresses occupied by the instructions reached within the
+   * function, in ascending order. The trace remains valid for any image in
+   * which these words are unchanged.
+   */
+  final int[] footprint;
+
+  /**
+   * The distinct successors beyond the end of the image of the instructions
+   * reached (e.g. by falling off its end), in ascending order. The trace
+   * remains valid only whilst these remain outside the image.
+   */
+  final int[] exits;
+
+  /**
+   * Constructor for Function Trace class.
+   *
+   * @param entry             = entry address of the function.
+   * @param localHeight       = maximum stack height within the function itself.
+   * @param unboundedLoop     = head of the loop which makes the local height
+   *                          unbounded, or -1.
+   * @param enablesInterrupts = whether SEI is reached within the function.
+   * @param callSites         = address of each call site.
+   * @param callTargets       = target of each call site.
+   * @param callHeights       = stack height at each call site.
+   * @param tailCalls         = whether each call site is a tail call.
+   * @param callees           = distinct entry addresses of functions called.
+   * @param footprint         = word addresses of the instructions reached.
+   * @param exits             = successors beyond the end of the image.
+   */
+  FunctionTrace(int entry, int localHeight, int unboundedLoop, boolean enablesInterrupts,
+      int[] callSites, int[] callTargets, int[] callHeights, boolean[] tailCalls, int[] callees,
+      int[] footprint, int[] exits) {
+    this.entry = entry;
+    this.localHeight = localHeight;
+    this.unboundedLoop = unboundedLoop;
+    this.enablesInterrupts = enablesInterrupts;
+    this.callSites = callSites;
+    this.callTargets = callTargets;
+    this.callHeights = callHeights;
+    this.tailCalls = tailCalls;
+    this.callees = callees;
+    this.footprint = footprint;
+    this.exits = exits;
+  }
+
+  /**
+   * Combine the local results with the summaries of the functions called, to
+   * produce the summary of this function. Targets outside the image have no
+   * summary, and account only for the return address pushed by the call.
+   *
+   * @param recursive = indicates whether this function is recursive.
+   * @param summaries = summaries of functions, indexed by entry address.
+   * @return summary = function summary.
+   */
+  FunctionSummary toSummary(boolean recursive, FunctionSummary[] summaries) {
+    int height = recursive ? Integer.MAX_VALUE : this.localHeight;
+    boolean enables = this.enablesInterrupts;
+    for (int i = 0; i < this.callTargets.length; i++) {
+      int callee = this.callTargets[i];
+      int calleeHeight = 0;
+      if (callee >= 0 && callee < summaries.length) {
+        if (summaries[callee] == null) {
+          // Callee is within this recursive component
+          continue;
+        }
+        calleeHeight = summaries[callee].getMaxHeight();
+        enables |= summaries[callee].enablesInterrupts();
+      }
+      // Account for the return address pushed by the call
+      height = Math.max(height, add(add(this.callHeights[i], 2), calleeHeight));
+    }
+    return new FunctionSummary(this.entry, height, enables, this.callees);
+  }
+
+  /**
+   * Add two stack heights, saturating at Integer.MAX_VALUE (i.e. unbounded).
+   * An unbounded height stays unbounded, even when added to a negative height
+   * (e.g. at a call site reached after popping below the height on entry).
+   *
+   * @param lhs = first height.
+   * @param rhs = second height.
+   * @return sum = combined height.
+   */
+  static int add(int lhs, int rhs) {
+    if (lhs == Integer.MAX_VALUE || rhs == Integer.MAX_VALUE) {
+      return Integer.MAX_VALUE;
+    }
+    long sum = (long) lhs + rhs;
+    return sum >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+  }
+}
@@ -0,0 +1,1068 @@
+package avranalysis.core;
+
+import avranalysis.util.IntQueue;
+import avranalysis.util.LongBitList;
+import java.util.Arrays;
+import javr.core.AvrInstruction;
+import javr.core.AvrInstruction.Opcode;
+import javr.core.AvrInstruction.RegisterImmediate;
+
+/**
+ * Traverses the body of a single function using a worklist over basic blocks
+ * (see BlockGraph), with the greatest stack height seen on entry to each block
+ * as the join. Each block is processed in one step, using the net and peak
+ * change in height across its straight-line instructions. A function entered
+ * part way through a block (e.g. at an interrupt vector) is processed one
+ * instruction at a time until a block is reached. Calls are not followed, but
+ * are recorded along with the stack height at the call site. The value of the
+ * frame pointer is tracked alongside the height (see FramePointer), so that
+ * frames allocated by writing to the stack pointer are included in the height.
+ * An indirect call whose target could not be resolved is assumed to call any
+ * known function, whilst an unresolved indirect jump is treated as a tail call
+ * to any known function. Likewise, control which falls (or jumps) into a
+ * function beginning later in the image is treated as a tail call to it, so
+ * that a chain of functions which fall through into one another is traversed
+ * once, rather than again from every entry along the chain.
+ *
+ * <p>
+ * A loop which grows the stack would raise the height on entry to its head
+ * forever, so the height is widened to unbounded when a back edge raises it
+ * again. This is detected at the loop head after a couple of trips around the
+ * loop, rather than after a path as long as the image. A loop which pushes and
+ * pops the same number of bytes never raises the height at its head, so keeps
+ * an exact bound.
+ * </p>
+ *
+ * <p>
+ * Optionally, the least stack height on entry to each program counter is
+ * tracked as well, so that the heights on entry form an interval. This is only
+ * needed to annotate the image (see HeightAnnotator), and costs nothing
+ * otherwise.
+ * </p>
+ *
+ * <p>
+ * Likewise, the program counter from which the greatest height on entry to
+ * each program counter was reached can be recorded, so that a path which
+ * produces a given height can be recovered (see PathTracer).
+ * </p>
+ *
+ * <p>
+ * An instance holds scratch state sized to the firmware image, which is reset
+ * after each traversal. Hence, instances can be reused for any number of
+ * functions, but must not be shared between threads.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+final class FunctionTraversal {
+  /**
+   * Indicates a program counter which has not yet been reached.
+   */
+  private static final int UNREACHED = Integer.MIN_VALUE;
+
+  /**
+   * The number of instructions traversed between each check against the budget.
+   */
+  private static final int CHARGE_INTERVAL = 1024;
+
+  /**
+   * The number of times the height on entry to a loop head can be raised
+   * through a back edge before it is widened. Once the head of a natural loop
+   * has been reached, any such raise means the loop grows the stack. Allowing
+   * one raise avoids widening a loop with several entries which is first
+   * entered at a greater height through one of the others.
+   */
+  private static final int WIDENING_DELAY = 1;
+
+  /**
+   * The pre-decoded instructions of the firmware image.
+   */
+  private final InstructionTable table;
+
+  /**
+   * The basic blocks of the firmware image.
+   */
+  private final BlockGraph graph;
+
+  /**
+   * The entry address of the function being traversed.
+   */
+  private int entry;
+
+  /**
+   * Records the maximum height seen so far within the function being traversed.
+   */
+  private int maxHeight;
+
+  /**
+   * Records the state on entry to each block (or other program counter
+   * processed), packed into a long. The upper half holds the greatest stack
+   * height seen on entry, or UNREACHED, which is the join of the dataflow
+   * analysis. The lower half holds the id of the context giving the value of
+   * the frame pointer on entry (see FrameContexts).
+   */
+  private final long[] states;
+
+  /**
+   * Records the number of times the height on entry to each loop head has been
+   * raised through a back edge. Every cycle passes through a loop head (see
+   * BlockGraph), so the height is widened to unbounded once this exceeds
+   * WIDENING_DELAY.
+   */
+  private final byte[] raises;
+
+  /**
+   * Interns the values of the frame pointer reached within the function being
+   * traversed.
+   */
+  private final FrameContexts contexts = new FrameContexts();
+
+  /**
+   * Records the least stack height seen on entry to each program counter, or
+   * null if this is not tracked. A height of Integer.MIN_VALUE means the
+   * height can decrease without bound.
+   */
+  private final int[] lows;
+
+  /**
+   * Records the number of times the least height on entry to each loop head
+   * has been lowered through a back edge, or null if this is not tracked.
+   */
+  private final byte[] drops;
+
+  /**
+   * The difference between the greatest and least heights on entry to the
+   * instruction being processed, or Integer.MAX_VALUE if the least height is
+   * unbounded. The least height on entry to each successor follows from this.
+   */
+  private int spread;
+
+  /**
+   * The least stack height on entry to the function, when annotating.
+   */
+  private int entryLow;
+
+  /**
+   * The greatest stack height on entry to the function, when annotating.
+   */
+  private int entryHigh;
+
+  /**
+   * The least (absolute) stack height on entry to each program counter across
+   * every function annotated so far, or null when not annotating.
+   */
+  private int[] outLows;
+
+  /**
+   * The greatest (absolute) stack height on entry to each program counter
+   * across every function annotated so far, or null when not annotating.
+   */
+  private int[] outHighs;
+
+  /**
+   * Records the program counter whose processing produced the greatest height
+   * on entry to each program counter (or -1 for the entry address), or null
+   * when no path is being recovered.
+   */
+  private int[] preds;
+
+  /**
+   * The program counter at which the path being recovered ends, or -1 for the
+   * instruction after which the greatest height was reached.
+   */
+  private int pathEnd;
+
+  /**
+   * The program counter at which the block containing the end of the path
+   * being recovered was entered, or -1.
+   */
+  private int endState;
+
+  /**
+   * Receives the steps of the path being recovered, or null.
+   */
+  private IntQueue pathSteps;
+
+  /**
+   * The program counter at which the block being processed was entered, when
+   * recovering a path.
+   */
+  private int from;
+
+  /**
+   * The program counter at which the block within which the greatest height
+   * was reached was entered, or -1 if it was reached on entry to the function,
+   * when recovering a path.
+   */
+  private int peak;
+
+  /**
+   * The loop head at which the height was widened to unbounded, or -1.
+   */
+  private int unboundedAt;
+
+  /**
+   * Records the functions within which control reaching a later function is
+   * followed into it, rather than treated as a tail call.
+   */
+  private final LongBitList inlined;
+
+  /**
+   * Records which program counters are currently in the worklist.
+   */
+  private final LongBitList queued;
+
+  /**
+   * Records the program counters whose height has changed, and which still need
+   * to be processed.
+   */
+  private final IntQueue worklist = new IntQueue();
+
+  /**
+   * Records the program counters reached within the function being traversed,
+   * so that only these need to be reset afterwards.
+   */
+  private final IntQueue touched = new IntQueue();
+
+  /**
+   * Records each successor beyond the end of the image of the instructions
+   * reached within the function being traversed.
+   */
+  private final IntQueue exits = new IntQueue();
+
+  /**
+   * Records the address of each call site found within the function being
+   * traversed.
+   */
+  private final IntQueue sites = new IntQueue();
+
+  /**
+   * Records the target of each call site found so far.
+   */
+  private final IntQueue siteTargets = new IntQueue();
+
+  /**
+   * Records the stack height at each call site found so far.
+   */
+  private final IntQueue siteHeights = new IntQueue();
+
+  /**
+   * Records whether each call site found so far is a tail call (1) or not (0).
+   */
+  private final IntQueue siteTails = new IntQueue();
+
+  /**
+   * Constructor for Function Traversal class.
+   *
+   * @param table = pre-decoded instructions of the firmware image.
+   */
+  FunctionTraversal(InstructionTable table) {
+    this(table, false);
+  }
+
+  /**
+   * Constructor for Function Traversal class.
+   *
+   * @param table     = pre-decoded instructions of the firmware image.
+   * @param intervals = whether to track the least height on entry to each
+   *                  program counter, as well as the greatest.
+   */
+  FunctionTraversal(InstructionTable table, boolean intervals) {
+    this.table = table;
+    this.graph = table.getBlocks();
+    this.lows = intervals ? new int[table.size()] : null;
+    this.drops = intervals ? new byte[table.size()] : null;
+    this.states = new long[table.size()];
+    this.raises = new byte[table.size()];
+    this.queued = new LongBitList(table.size());
+    this.inlined = new LongBitList(table.size());
+    Arrays.fill(this.states, pack(UNREACHED, FrameContexts.UNKNOWN));
+  }
+
+  /**
+   * Set the functions within which control reaching a later function is
+   * followed into it, rather than treated as a tail call (see
+   * StackAnalysis.inlineCycles()). By default, there are none.
+   *
+   * @param entries = entry addresses of the functions.
+   */
+  void setInlined(int[] entries) {
+    this.inlined.clear();
+    for (int entry : entries) {
+      this.inlined.set(entry, true);
+    }
+  }
+
+  /**
+   * Traverse the body of a function from its entry address, assuming the stack
+   * is empty on entry. The traversal stops early if the budget is exhausted, in
+   * which case the trace returned is incomplete and must be discarded.
+   *
+   * @param entry   = entry address of the function.
+   * @param tracker = tracks the work performed against the budget.
+   * @return trace = the local results of the traversal.
+   */
+  FunctionTrace traverseFunction(int entry, BudgetTracker tracker) {
+    // Reset the maximum, height
+    this.entry = entry;
+    this.maxHeight = 0;
+    // Traverse instructions starting at entry
+    this.spread = 0;
+    this.from = -1;
+    this.peak = -1;
+    this.endState = -1;
+    this.unboundedAt = -1;
+    this.contexts.clear();
+    join(entry, 0, false, FrameContexts.UNKNOWN);
+    // Each block is charged for the instructions it covers
+    int steps = 0;
+    while (!this.worklist.isEmpty() && this.maxHeight != Integer.MAX_VALUE) {
+      steps += traverse(this.worklist.poll());
+      if (steps >= CHARGE_INTERVAL) {
+        boolean within = tracker.charge(steps);
+        steps = 0;
+        if (!within) {
+          break;
+        }
+      }
+    }
+    tracker.charge(steps);
+    if (this.pathSteps != null) {
+      recover();
+    }
+    // Collect call sites and reset the traversal state
+    IntQueue words = new IntQueue(this.touched.size() + 1);
+    boolean enablesInterrupts = false;
+    while (!this.touched.isEmpty()) {
+      int start = this.touched.poll();
+      int height = heightOf(this.states[start]);
+      if (isTailEntry(start)) {
+        // The function entered is accounted for by its own summary
+        if (this.outLows != null) {
+          record(start, start, height);
+        }
+        addSite(start, start, height, true);
+      } else {
+        int block = this.graph.getBlock(start);
+        int last = block < 0 ? start : this.graph.getLast(block);
+        // Move through the instructions of the block, to find the height on
+        // entry to each
+        for (int pc = start; true; pc += this.table.getWidth(pc)) {
+          if (this.outLows != null) {
+            record(pc, start, height);
+          }
+          for (int i = 0; i < this.table.getWidth(pc); i++) {
+            words.add(pc + i);
+          }
+          if (this.table.getOpcode(pc) == Opcode.SEI) {
+            enablesInterrupts = true;
+          }
+          if (pc == last) {
+            addSites(pc, height);
+            addExits(pc);
+            break;
+          }
+          height += BlockGraph.delta(this.table.getFlow(pc));
+        }
+      }
+      this.states[start] = pack(UNREACHED, FrameContexts.UNKNOWN);
+      this.raises[start] = 0;
+      if (this.drops != null) {
+        this.drops[start] = 0;
+      }
+      this.queued.set(start, false);
+    }
+    this.worklist.clear();
+    int[] callSites = new int[this.sites.size()];
+    int[] callTargets = new int[this.sites.size()];
+    int[] callHeights = new int[this.sites.size()];
+    boolean[] tailCalls = new boolean[this.sites.size()];
+    for (int i = 0; !this.sites.isEmpty(); i++) {
+      callSites[i] = this.sites.poll();
+      callTargets[i] = this.siteTargets.poll();
+      callHeights[i] = this.siteHeights.poll();
+      tailCalls[i] = this.siteTails.poll() != 0;
+    }
+    // Determine the distinct callees within the image
+    int[] callees = callTargets.clone();
+    Arrays.sort(callees);
+    int count = 0;
+    for (int i = 0; i < callees.length; i++) {
+      if (inImage(callees[i]) && (count == 0 || callees[i] != callees[count - 1])) {
+        callees[count++] = callees[i];
+      }
+    }
+    int[] exits = new int[this.exits.size()];
+    for (int i = 0; i < exits.length; i++) {
+      exits[i] = this.exits.poll();
+    }
+    Arrays.sort(exits);
+    int distinct = 0;
+    for (int i = 0; i < exits.length; i++) {
+      if (distinct == 0 || exits[i] != exits[distinct - 1]) {
+        exits[distinct++] = exits[i];
+      }
+    }
+    int[] footprint = new int[words.size()];
+    for (int i = 0; i < footprint.length; i++) {
+      footprint[i] = words.poll();
+    }
+    Arrays.sort(footprint);
+    return new FunctionTrace(entry, this.maxHeight, this.unboundedAt, enablesInterrupts,
+        callSites, callTargets, callHeights, tailCalls, Arrays.copyOf(callees, count),
+        footprint, Arrays.copyOf(exits, distinct));
+  }
+
+  /**
+   * Traverse the body of a function as traverseFunction() does, tracking the
+   * least as well as the greatest height on entry to each program counter.
+   * These are offset by the given bounds on the height on entry to the
+   * function, and merged into the given (absolute) bounds for each program
+   * counter. If the stack is found to be unbounded, then every instruction
+   * reached so far is given an unbounded upper bound.
+   *
+   * @param entry     = entry address of the function.
+   * @param low       = least height on entry to the function.
+   * @param high      = greatest height on entry to the function.
+   * @param lowsOut   = least height on entry to each program counter.
+   * @param highsOut  = greatest height on entry to each program counter.
+   * @return trace = the local results of the traversal.
+   */
+  FunctionTrace traverseIntervals(int entry, int low, int high, int[] lowsOut,
+      int[] highsOut) {
+    if (this.lows == null) {
+      throw new IllegalStateException("intervals are not tracked");
+    }
+    this.entryLow = low;
+    this.entryHigh = high;
+    this.outLows = lowsOut;
+    this.outHighs = highsOut;
+    try {
+      return traverseFunction(entry, new BudgetTracker(AnalysisBudget.UNLIMITED));
+    } finally {
+      this.outLows = null;
+      this.outHighs = null;
+    }
+  }
+
+  /**
+   * Traverse the body of a function as traverseFunction() does, and recover
+   * the path from its entry which reaches a given program counter (the last
+   * instruction of a block, or a function entered as a tail call) with the
+   * greatest height on entry to it. The path
+   * is given as a step for each instruction along it which changes the height,
+   * from last to first. Each step is a pair of the program counter of the
+   * instruction and the change in height, except that the change is
+   * Integer.MAX_VALUE for a final step which makes the stack unbounded.
+   *
+   * @param entry = entry address of the function.
+   * @param end   = program counter at which the path ends, or -1 for a path
+   *              which reaches the greatest height within the function.
+   * @param preds = scratch space for the predecessor of each program counter.
+   * @param steps = receives the steps of the path.
+   * @return trace = the local results of the traversal.
+   */
+  FunctionTrace traverseWitness(int entry, int end, int[] preds, IntQueue steps) {
+    this.preds = preds;
+    this.pathEnd = end;
+    this.pathSteps = steps;
+    try {
+      return traverseFunction(entry, new BudgetTracker(AnalysisBudget.UNLIMITED));
+    } finally {
+      this.preds = null;
+      this.pathSteps = null;
+    }
+  }
+
+  /**
+   * Follow the predecessor of each block back from the end of the path being
+   * recovered to the entry of the function, adding the steps within each
+   * block. A path longer than the image must have gone around a cycle, so is
+   * cut short.
+   */
+  private void recover() {
+    int pc;
+    if (this.pathEnd < 0) {
+      // The path ends within the block where the peak was reached
+      pc = this.peak;
+      if (pc < 0) {
+        return;
+      }
+      addSteps(pc, -1, this.maxHeight, true);
+    } else {
+      pc = this.endState;
+      if (pc < 0 || heightOf(this.states[pc]) == UNREACHED) {
+        return;
+      }
+      addSteps(pc, this.pathEnd, 0, false);
+    }
+    for (int i = 0; i < this.table.size() && this.preds[pc] >= 0; i++) {
+      int pred = this.preds[pc];
+      addSteps(pred, -1, heightOf(this.states[pc]), false);
+      pc = pred;
+    }
+  }
+
+  /**
+   * Add the steps within a block to the path being recovered, from last to
+   * first. The change in height made by the last instruction of the block is
+   * whatever remains to reach the given height on exit, since it may depend on
+   * the frame pointer.
+   *
+   * @param start = program counter at which the block was entered.
+   * @param stop  = program counter at which to stop (without including it), or
+   *              -1 to include every instruction of the block.
+   * @param exit  = height after the last instruction of the block.
+   * @param peak  = whether to stop as soon as the height on exit is reached.
+   */
+  private void addSteps(int start, int stop, int exit, boolean peak) {
+    int block = this.graph.getBlock(start);
+    int last = block < 0 ? start : this.graph.getLast(block);
+    int[] found = new int[2 * (block < 0 ? 1 : this.graph.getLength(block))];
+    int count = 0;
+    int height = heightOf(this.states[start]);
+    for (int pc = start; pc != stop; pc += this.table.getWidth(pc)) {
+      int delta;
+      if (pc != last) {
+        delta = BlockGraph.delta(this.table.getFlow(pc));
+      } else if (exit == Integer.MAX_VALUE) {
+        delta = Integer.MAX_VALUE;
+      } else {
+        delta = exit - height;
+      }
+      if (delta != 0) {
+        found[count++] = pc;
+        found[count++] = delta;
+      }
+      if (pc == last || (peak && delta != Integer.MAX_VALUE && height + delta >= exit)) {
+        break;
+      }
+      height += delta;
+    }
+    for (int i = count - 2; i >= 0; i -= 2) {
+      this.pathSteps.add(found[i]);
+      this.pathSteps.add(found[i + 1]);
+    }
+  }
+
+  /**
+   * Merge the local bounds on the height on entry to a given program counter
+   * into the absolute bounds being annotated. The least height changes by the
+   * same amount as the greatest across the block containing the program
+   * counter.
+   *
+   * @param pc     = program counter reached within the function.
+   * @param start  = program counter at which the block was entered.
+   * @param height = greatest height on entry to the program counter.
+   */
+  private void record(int pc, int start, int height) {
+    int low = this.lows[start] == Integer.MIN_VALUE || this.entryLow == Integer.MIN_VALUE
+        ? Integer.MIN_VALUE
+        : this.entryLow + this.lows[start] + height - heightOf(this.states[start]);
+    int high = this.maxHeight == Integer.MAX_VALUE ? Integer.MAX_VALUE
+        : FunctionTrace.add(this.entryHigh, height);
+    if (this.outHighs[pc] == UNREACHED) {
+      this.outLows[pc] = low;
+      this.outHighs[pc] = high;
+    } else {
+      this.outLows[pc] = Math.min(this.outLows[pc], low);
+      this.outHighs[pc] = Math.max(this.outHighs[pc], high);
+    }
+  }
+
+  /**
+   * Record the call site (if any) at the last instruction of a block.
+   *
+   * @param pc     = program counter of the last instruction.
+   * @param height = stack height on entry to the instruction.
+   */
+  private void addSites(int pc, int height) {
+    switch (this.table.getFlow(pc)) {
+      case CALL: {
+        addSite(pc, this.table.getTarget(pc), height, false);
+        break;
+      }
+      case INDIRECT_CALL: {
+        addIndirect(pc, height, false);
+        break;
+      }
+      case INDIRECT_JUMP: {
+        if (this.table.getTarget(pc) == InstructionTable.NO_TARGET) {
+          addIndirect(pc, height, true);
+        }
+        break;
+      }
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Record any successor of the last instruction of a block which lies beyond
+   * the end of the image.
+   *
+   * @param pc = program counter of the last instruction.
+   */
+  private void addExits(int pc) {
+    int next = pc + this.table.getWidth(pc);
+    int target = this.table.getTarget(pc);
+    switch (this.table.getFlow(pc)) {
+      case BRANCH:
+      case SKIP: {
+        addExit(target);
+        addExit(next);
+        break;
+      }
+      case JUMP:
+      case INDIRECT_JUMP: {
+        addExit(target);
+        break;
+      }
+      case RETURN:
+        break;
+      default: {
+        addExit(next);
+      }
+    }
+  }
+
+  /**
+   * Record a successor, if it lies beyond the end of the image. A successor
+   * before the start of the image can never be reached, however the image
+   * changes.
+   *
+   * @param pc = program counter of the successor, or NO_TARGET.
+   */
+  private void addExit(int pc) {
+    if (pc >= this.table.size()) {
+      this.exits.add(pc);
+    }
+  }
+
+  /**
+   * Record the possible targets of an indirect call site. This is the resolved
+   * target if there is one, and otherwise every known function entry.
+   *
+   * @param pc     = program counter of the indirect instruction.
+   * @param height = stack height at the call site.
+   * @param tail   = whether the call site is a tail call.
+   */
+  private void addIndirect(int pc, int height, boolean tail) {
+    int target = this.table.getTarget(pc);
+    if (target != InstructionTable.NO_TARGET) {
+      addSite(pc, target, height, tail);
+    } else {
+      for (int entry : this.table.getFunctionEntries()) {
+        addSite(pc, entry, height, tail);
+      }
+    }
+  }
+
+  /**
+   * Record a call site.
+   *
+   * @param pc     = program counter of the call site.
+   * @param target = target of the call.
+   * @param height = stack height at the call site.
+   * @param tail   = whether the call site is a tail call.
+   */
+  private void addSite(int pc, int target, int height, boolean tail) {
+    this.sites.add(pc);
+    this.siteTargets.add(target);
+    // A tail call pushes no return address, which toSummary() accounts for at
+    // every call site.
+    this.siteHeights.add(tail ? height - 2 : height);
+    this.siteTails.add(tail ? 1 : 0);
+  }
+
+  /**
+   * Check whether reaching a given program counter, other than by a call,
+   * enters a function which begins later in the image than the one being
+   * traversed (e.g. by falling through into it). This is treated as a tail
+   * call, so the function entered is traversed once on its own, rather than
+   * again within every function which reaches it. Only later functions are
+   * entered like this, so such tail calls can never form a cycle.
+   *
+   * @param pc = program counter reached.
+   * @return true if a later function is entered, false otherwise.
+   */
+  private boolean isTailEntry(int pc) {
+    return pc > this.entry && this.table.isCalled(pc) && !this.inlined.get(this.entry);
+  }
+
+  /**
+   * Traverse the block beginning at a given pc address, using the greatest
+   * stack height recorded on entry to it so far. If pc is not the start of a
+   * block, only the instruction at pc is traversed.
+   *
+   * @param pc Program Counter of block to traverse
+   * @return count = number of instructions traversed.
+   */
+  private int traverse(int pc) {
+    this.queued.set(pc, false);
+    int block = this.graph.getBlock(pc);
+    int last = block < 0 ? pc : this.graph.getLast(block);
+    if (this.preds != null) {
+      this.from = pc;
+      if (last == this.pathEnd || pc == this.pathEnd) {
+        this.endState = pc;
+      }
+    }
+    if (isTailEntry(pc)) {
+      // The function entered is accounted for by its own summary
+      return 1;
+    }
+    if (block < 0) {
+      // Move to the next logical instruction as this is always the starting
+      // point.
+      process(pc, pc + this.table.getWidth(pc));
+      return 1;
+    }
+    long state = this.states[pc];
+    int currentHeight = heightOf(state);
+    if (this.lows != null) {
+      int low = this.lows[pc];
+      this.spread = low == Integer.MIN_VALUE ? Integer.MAX_VALUE : currentHeight - low;
+    }
+    // Account for the straight-line instructions of the block
+    int peakHeight = currentHeight + this.graph.getPeak(block);
+    if (this.preds != null && peakHeight > this.maxHeight) {
+      this.peak = pc;
+    }
+    this.maxHeight = Math.max(this.maxHeight, peakHeight);
+    int height = currentHeight + this.graph.getNet(block);
+    int context = contextOf(state);
+    int first = this.graph.getFirstEdge(block);
+    int end = this.graph.getFirstEdge(block + 1);
+    if (this.table.getFlow(last) == ControlFlow.FRAME) {
+      // The only successor is the following instruction
+      boolean back = first < end && this.graph.isBackEdge(first);
+      processFrame(last, last + this.table.getWidth(last), height, back, context);
+    } else {
+      // Every other instruction ending a block leaves the height unchanged
+      for (int e = first; e < end; e++) {
+        join(this.graph.getSuccessor(e), height, this.graph.isBackEdge(e), context);
+      }
+    }
+    return this.graph.getLength(block);
+  }
+
+  /**
+   * Process the effect of a given instruction. Switch statement over the
+   * control flow class of the instruction, to determine its successors and the
+   * stack height on entry to each.
+   *
+   * @param pc   Program counter of the instruction
+   * @param next Program counter of following instruction
+   */
+  private void process(int pc, int next) {
+    long state = this.states[pc];
+    int currentHeight = heightOf(state);
+    if (this.lows != null) {
+      int low = this.lows[pc];
+      this.spread = low == Integer.MIN_VALUE ? Integer.MAX_VALUE : currentHeight - low;
+    }
+    // An instruction outside every block cannot lie on a cycle, since the
+    // target of every branch or jump begins a block
+    boolean back = false;
+    int context = contextOf(state);
+    switch (this.table.getFlow(pc)) {
+      case BRANCH:
+      case SKIP: {
+        join(this.table.getTarget(pc), currentHeight, back, context);
+        join(next, currentHeight, back, context);
+        break;
+      }
+      case CALL:
+      case INDIRECT_CALL: {
+        // The callee is accounted for by its summary, which is combined with the
+        // height at this call site once it has been computed. The frame pointer
+        // is preserved across calls.
+        join(next, currentHeight, back, context);
+        break;
+      }
+      case JUMP: {
+        join(this.table.getTarget(pc), currentHeight, back, context);
+        break;
+      }
+      case INDIRECT_JUMP: {
+        // An unresolved target is accounted for as a tail call instead.
+        int target = this.table.getTarget(pc);
+        if (target != InstructionTable.NO_TARGET) {
+          join(target, currentHeight, back, context);
+        }
+        break;
+      }
+      case RETURN:
+        break;
+      case PUSH: {
+        join(next, currentHeight + 1, back, context);
+        break;
+      }
+      case POP: {
+        join(next, currentHeight - 1, back, context);
+        break;
+      }
+      case FRAME: {
+        processFrame(pc, next, currentHeight, back, context);
+        break;
+      }
+      default: {
+        // Indicates a standard instruction where control is transferred to the
+        // following instruction.
+        join(next, currentHeight, back, context);
+      }
+    }
+  }
+
+  /**
+   * Process the effect of an instruction which manipulates the frame pointer or
+   * the stack pointer directly. Only the frame pointer is tracked, so writing
+   * SPH from any register other than YH makes the stack unbounded. This is
+   * sound but imprecise, since it includes the "out SPH, __zero_reg__" written
+   * by avr-gcc for parts whose SPH is always zero.
+   *
+   * @param pc            Program counter of the instruction
+   * @param next          Program counter of following instruction
+   * @param currentHeight Height of the stack on entry (in bytes)
+   * @param back          Whether the edge to the successor is a back edge
+   * @param context       Id of the frame pointer context on entry
+   */
+  private void processFrame(int pc, int next, int currentHeight, boolean back,
+      int context) {
+    AvrInstruction instruction = this.table.getInstruction(pc);
+    int height = currentHeight;
+    int low = this.contexts.getLow(context);
+    int high = this.contexts.getHigh(context);
+    switch (instruction.getOpcode()) {
+      case RCALL: {
+        // "rcall ." allocates two bytes of frame for the return address
+        height = FunctionTrace.add(currentHeight, 2);
+        break;
+      }
+      case OUT: {
+        AvrInstruction.OUT out = (AvrInstruction.OUT) instruction;
+        if (out.A == FramePointer.SPL) {
+          // Writing the low byte completes the update of the stack pointer
+          height = FramePointer.toHeight(out.Rr == FramePointer.YL ? low
+              : FramePointer.UNKNOWN, high);
+          // The frame pointer was derived from the greatest height
+          this.spread = 0;
+        } else if (out.Rr != FramePointer.YH) {
+          // The value written is not tracked (even if it is r1, which is zero)
+          height = Integer.MAX_VALUE;
+        }
+        break;
+      }
+      case IN: {
+        AvrInstruction.IN in = (AvrInstruction.IN) instruction;
+        int value = FramePointer.UNKNOWN;
+        if ((in.Rd == FramePointer.YL && in.A == FramePointer.SPL)
+            || (in.Rd == FramePointer.YH && in.A == FramePointer.SPH)) {
+          // The stack pointer is the stack pointer on entry less the height
+          value = FramePointer.offset(currentHeight);
+        }
+        if (in.Rd == FramePointer.YL) {
+          low = value;
+        } else {
+          high = value;
+        }
+        break;
+      }
+      case LDI: {
+        AvrInstruction.LDI ldi = (AvrInstruction.LDI) instruction;
+        if (ldi.Rd == FramePointer.YL) {
+          low = FramePointer.constant(ldi.K);
+        } else {
+          high = FramePointer.constant(ldi.K);
+        }
+        break;
+      }
+      case SUBI: {
+        AvrInstruction.SUBI subi = (AvrInstruction.SUBI) instruction;
+        if (subi.Rd == FramePointer.YL) {
+          low = subtract(low, subi.K);
+        } else {
+          high = subtract(high, subi.K << 8);
+        }
+        break;
+      }
+      case SBCI: {
+        AvrInstruction.SBCI sbci = (AvrInstruction.SBCI) instruction;
+        if (sbci.Rd == FramePointer.YH && FramePointer.isOffset(low)
+            && FramePointer.isOffset(high)) {
+          // Completes a "subi r28, lo8(n); sbci r29, hi8(n)" pair, so the high
+          // byte now follows the low byte (including any borrow).
+          high = FramePointer.offset(FramePointer.getOffset(low) + (sbci.K << 8));
+        } else if (sbci.Rd == FramePointer.YH) {
+          high = FramePointer.UNKNOWN;
+        } else {
+          low = FramePointer.UNKNOWN;
+        }
+        break;
+      }
+      case ADIW:
+      case SBIW: {
+        RegisterImmediate adjust = (RegisterImmediate) instruction;
+        int k = instruction.getOpcode() == Opcode.SBIW ? adjust.K : -adjust.K;
+        int offset = FramePointer.toHeight(low, high);
+        if (FramePointer.isOffset(low) && offset != Integer.MAX_VALUE) {
+          low = high = FramePointer.offset(offset + k);
+        } else if (FramePointer.isConstant(low) && FramePointer.isConstant(high)) {
+          int value = (FramePointer.getConstant(high) << 8 | FramePointer.getConstant(low)) - k;
+          low = FramePointer.constant(value);
+          high = FramePointer.constant(value >> 8);
+        } else {
+          low = high = FramePointer.UNKNOWN;
+        }
+        break;
+      }
+      case POP: {
+        height = currentHeight - 1;
+        low = high = FramePointer.UNKNOWN;
+        break;
+      }
+      default: {
+        // Any other write destroys what is known about the frame pointer
+        low = high = FramePointer.UNKNOWN;
+      }
+    }
+    join(next, height, back, this.contexts.intern(low, high));
+  }
+
+  /**
+   * Subtract a constant from one byte of the frame pointer.
+   *
+   * @param value  = abstract value of the byte.
+   * @param amount = amount to subtract from the frame pointer.
+   * @return value = abstract value after subtraction.
+   */
+  private static int subtract(int value, int amount) {
+    if (FramePointer.isOffset(value)) {
+      return FramePointer.offset(FramePointer.getOffset(value) + amount);
+    } else if (FramePointer.isConstant(value)) {
+      return FramePointer.constant(FramePointer.getConstant(value) - (amount & 0xFF)
+          - (amount >> 8));
+    } else {
+      return FramePointer.UNKNOWN;
+    }
+  }
+
+  /**
+   * Join a given stack height and frame pointer into those recorded on entry to
+   * a given program counter. If this changes what is recorded, then the program
+   * counter is scheduled for (re)processing.
+   *
+   * @param pc            Program counter being entered
+   * @param currentHeight Height of the stack on entry (in bytes)
+   * @param back          Whether this point is entered through a back edge
+   * @param context       Id of the frame pointer context on entry
+   */
+  private void join(int pc, int currentHeight, boolean back, int context) {
+    // Check whether current stack height is maximum
+    if (this.preds != null && currentHeight > this.maxHeight) {
+      this.peak = this.from;
+    }
+    this.maxHeight = Math.max(this.maxHeight, currentHeight);
+    // Check whether we have terminated or not
+    if (!inImage(pc)) {
+      // We've gone over end of instruction sequence, so stop.
+      return;
+    } else if (heightOf(this.states[pc]) == UNREACHED) {
+      // First visit to this program counter
+      this.touched.add(pc);
+      this.states[pc] = pack(heightOf(this.states[pc]), context);
+      if (this.lows != null) {
+        this.lows[pc] = lowest(currentHeight);
+      }
+    } else {
+      int previous = contextOf(this.states[pc]);
+      int joined = this.contexts.join(previous, context);
+      boolean lower = this.lows != null && lowest(currentHeight) < this.lows[pc];
+      if (heightOf(this.states[pc]) >= currentHeight && !lower && joined == previous) {
+        // Nothing new to learn here
+        return;
+      }
+      this.states[pc] = pack(heightOf(this.states[pc]), joined);
+      if (lower) {
+        // As for the greatest height, the least height is widened once a loop
+        // has lowered it too often.
+        this.lows[pc] = back && ++this.drops[pc] > WIDENING_DELAY ? Integer.MIN_VALUE
+            : lowest(currentHeight);
+      }
+      if (back && heightOf(this.states[pc]) < currentHeight
+          && ++this.raises[pc] > WIDENING_DELAY) {
+        // The loop headed by this program counter keeps raising the stack
+        // height on entry. Hence, the stack is unbounded.
+        if (this.preds != null) {
+          this.peak = this.from;
+        }
+        this.unboundedAt = pc;
+        this.maxHeight = Integer.MAX_VALUE;
+        return;
+      }
+    }
+    if (heightOf(this.states[pc]) < currentHeight) {
+      this.states[pc] = pack(currentHeight, contextOf(this.states[pc]));
+      if (this.preds != null) {
+        this.preds[pc] = this.from;
+      }
+    }
+    if (this.queued.add(pc)) {
+      this.worklist.add(pc);
+    }
+  }
+
+  /**
+   * Pack a stack height and the id of a frame pointer context into a state.
+   *
+   * @param height  = stack height (in bytes), or UNREACHED.
+   * @param context = id of the context.
+   * @return state = packed state.
+   */
+  private static long pack(int height, int context) {
+    return (long) height << 32 | (context & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Get the stack height of a packed state.
+   *
+   * @param state = packed state.
+   * @return height = stack height (in bytes), or UNREACHED.
+   */
+  private static int heightOf(long state) {
+    return (int) (state >> 32);
+  }
+
+  /**
+   * Get the id of the frame pointer context of a packed state.
+   *
+   * @param state = packed state.
+   * @return context = id of the context.
+   */
+  private static int contextOf(long state) {
+    return (int) state;
+  }
+
+  /**
+   * Determine the least height on entry to a successor, given its greatest
+   * height, from the spread of heights at the instruction being processed.
+   *
+   * @param height = greatest height on entry to the successor.
+   * @return low = least height, or Integer.MIN_VALUE if unbounded.
+   */
+  private int lowest(int height) {
+    return this.spread == Integer.MAX_VALUE ? Integer.MIN_VALUE : height - this.spread;
+  }
+
+  /**
+   * Check whether a given program counter lies within the firmware image.
+   *
+   * @param pc = program counter.
+   * @return true if within the image, false otherwise.
+   */
+  private boolean inImage(int pc) {
+    return pc >= 0 && pc < this.table.size();
+  }
+}
@@ -0,0 +1,199 @@
+package avranalysis.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Annotates the disassembly of a firmware image with the interval of stack
+ * heights which can occur on entry to each reachable instruction. Heights are
+ * measured from the start of the main program, and include the heights on
+ * entry to the function containing the instruction from every one of its call
+ * sites. Code reached only from an interrupt handler is measured from the
+ * start of the handler, including the return address pushed by the interrupt.
+ *
+ * <p>
+ * The lines follow the format of javr.util.Disassembler, with the interval
+ * inserted between the address and the instruction. Each line is written as
+ * soon as it is rendered, so the annotation of a large image is never held in
+ * memory. Functions are traversed once more to compute the intervals, since
+ * the analysis itself keeps only the greatest height of each function.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+final class HeightAnnotator {
+  /**
+   * Indicates an address for which no height is known.
+   */
+  private static final int UNREACHED = Integer.MIN_VALUE;
+
+  /**
+   * The pre-decoded instructions of the firmware image.
+   */
+  private final InstructionTable table;
+
+  /**
+   * The call graph of the functions reached.
+   */
+  private final CallGraph callGraph;
+
+  /**
+   * The entry addresses of the interrupt handlers.
+   */
+  private final int[] handlers;
+
+  /**
+   * The entry addresses of the functions traversed without tail calls.
+   */
+  private final int[] inlined;
+
+  /**
+   * Constructor for Height Annotator class.
+   *
+   * @param table     = pre-decoded instructions of the firmware image.
+   * @param callGraph = call graph of the functions reached.
+   * @param handlers  = entry addresses of the interrupt handlers.
+   * @param inlined   = entry addresses of the functions traversed without tail
+   *                  calls.
+   */
+  HeightAnnotator(InstructionTable table, CallGraph callGraph, int[] handlers,
+      int[] inlined) {
+    this.table = table;
+    this.callGraph = callGraph;
+    this.handlers = handlers;
+    this.inlined = inlined;
+  }
+
+  /**
+   * Write the annotated disassembly of the image.
+   *
+   * @param out = destination of the annotation.
+   * @throws IOException if the annotation cannot be written.
+   */
+  void write(Writer out) throws IOException {
+    int size = this.table.size();
+    int[] lows = new int[size];
+    int[] highs = new int[size];
+    Arrays.fill(highs, UNREACHED);
+    computeIntervals(lows, highs);
+    boolean gap = false;
+    for (int pc = 0; pc < size; pc++) {
+      if (highs[pc] == UNREACHED) {
+        if (!gap) {
+          out.write(" ... \n");
+          gap = true;
+        }
+        continue;
+      }
+      gap = false;
+      if (this.callGraph.contains(pc)) {
+        out.write("; function ");
+        out.write(toAddress(pc));
+        out.write('\n');
+      }
+      out.write(toAddress(pc));
+      out.write('\t');
+      out.write('[');
+      out.write(lows[pc] == Integer.MIN_VALUE ? "-inf" : Integer.toString(lows[pc]));
+      out.write(',');
+      out.write(highs[pc] == Integer.MAX_VALUE ? "inf" : Integer.toString(highs[pc]));
+      out.write(']');
+      out.write('\t');
+      out.write(this.table.getInstruction(pc).toString());
+      out.write('\n');
+      // Skip the second word of a 32-bit instruction
+      pc += this.table.getWidth(pc) - 1;
+    }
+    out.flush();
+  }
+
+  /**
+   * Compute the interval of heights on entry to each reachable instruction. The
+   * components of the call graph are visited callers first, so that the
+   * heights on entry to each function are known from all of its call sites
+   * before it is traversed. Every function in a recursive component may be
+   * entered with an unbounded height.
+   *
+   * @param lows  = least height on entry to each address.
+   * @param highs = greatest height on entry to each address.
+   */
+  private void computeIntervals(int[] lows, int[] highs) {
+    int size = this.table.size();
+    int[] entryLows = new int[size];
+    int[] entryHighs = new int[size];
+    Arrays.fill(entryHighs, UNREACHED);
+    if (this.callGraph.contains(0)) {
+      enter(0, 0, 0, entryLows, entryHighs);
+    }
+    for (int handler : this.handlers) {
+      // The interrupt pushes its return address
+      enter(handler, 2, 2, entryLows, entryHighs);
+    }
+    FunctionTraversal traversal = new FunctionTraversal(this.table, true);
+    traversal.setInlined(this.inlined);
+    for (int c = this.callGraph.getComponentCount() - 1; c >= 0; c--) {
+      int[] members = this.callGraph.getMembers(c);
+      if (this.callGraph.isRecursive(members[0])) {
+        int low = Integer.MAX_VALUE;
+        for (int entry : members) {
+          if (entryHighs[entry] != UNREACHED) {
+            low = Math.min(low, entryLows[entry]);
+          }
+        }
+        for (int entry : members) {
+          enter(entry, low, Integer.MAX_VALUE, entryLows, entryHighs);
+        }
+      }
+      for (int entry : members) {
+        if (entryHighs[entry] == UNREACHED) {
+          continue;
+        }
+        FunctionTrace trace = traversal.traverseIntervals(entry, entryLows[entry],
+            entryHighs[entry], lows, highs);
+        for (int i = 0; i < trace.callSites.length; i++) {
+          int site = trace.callSites[i];
+          int target = trace.callTargets[i];
+          if (target < 0 || target >= size || highs[site] == UNREACHED) {
+            continue;
+          }
+          // A tail call pushes no return address
+          int pushed = trace.tailCalls[i] ? 0 : 2;
+          int low = lows[site] == Integer.MIN_VALUE ? Integer.MIN_VALUE : lows[site] + pushed;
+          enter(target, low, FunctionTrace.add(highs[site], pushed), entryLows, entryHighs);
+        }
+      }
+    }
+  }
+
+  /**
+   * Merge a given interval into the heights on entry to a function.
+   *
+   * @param entry      = entry address of the function.
+   * @param low        = least height on entry.
+   * @param high       = greatest height on entry.
+   * @param entryLows  = least height on entry to each function.
+   * @param entryHighs = greatest height on entry to each function.
+   */
+  private static void enter(int entry, int low, int high, int[] entryLows, int[] entryHighs) {
+    if (entryHighs[entry] == UNREACHED) {
+      entryLows[entry] = low;
+      entryHighs[entry] = high;
+    } else {
+      entryLows[entry] = Math.min(entryLows[entry], low);
+      entryHighs[entry] = Math.max(entryHighs[entry], high);
+    }
+  }
+
+  /**
+   * Render a word address as Disassembler does.
+   *
+   * @param pc = word address.
+   * @return text = four (or more) upper-case hexadecimal digits.
+   */
+  private static String toAddress(int pc) {
+    String hex = Integer.toHexString(pc).toUpperCase();
+    return "0000".substring(Math.min(hex.length(), 4)) + hex;
+  }
+}
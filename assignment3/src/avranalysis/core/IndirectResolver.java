@@ -0,0 +1,233 @@
+package avranalysis.core;
+
+import avranalysis.util.LongBitList;
+import javr.core.AvrInstruction;
+import javr.core.AvrInstruction.Opcode;
+import javr.core.AvrInstruction.RegisterImmediate;
+import javr.core.AvrInstruction.RegisterRegister;
+
+/**
+ * Resolves the target of an indirect call or jump by constant propagation on
+ * the Z register pair (r31:r30). Starting from the indirect instruction, the
+ * straight-line code before it is scanned backwards for the instructions which
+ * define each byte of Z. Loads of immediates (LDI), register copies (MOV,
+ * MOVW), loads from constant addresses in flash (LPM) and constant adjustments
+ * of Z itself are followed, so that both direct loads of a function address and
+ * loads from a table of function pointers are resolved.
+ *
+ * <p>
+ * The scan stops at any instruction which can be reached other than from the
+ * one before it (i.e. the target of a branch, jump, skip or call), and at any
+ * instruction which transfers control, since Z may then hold a different value.
+ * The number of instructions examined for each indirect instruction is bounded,
+ * so resolution never costs more than a small constant per indirect call or
+ * jump, and nothing at all for images without them.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+final class IndirectResolver {
+  /**
+   * The maximum number of instructions examined to resolve a single target.
+   */
+  private static final int MAX_STEPS = 32;
+
+  /**
+   * The register holding the low byte of Z.
+   */
+  private static final int ZL = 30;
+
+  /**
+   * The register holding the high byte of Z.
+   */
+  private static final int ZH = 31;
+
+  /**
+   * The decoded instructions of the image.
+   */
+  private final InstructionTable table;
+
+  /**
+   * The raw bytes of the image, as read by LPM.
+   */
+  private final byte[] bytes;
+
+  /**
+   * Records which word addresses can be reached other than from the preceding
+   * instruction.
+   */
+  private final LongBitList entered;
+
+  /**
+   * The number of instructions examined so far for the current target.
+   */
+  private int steps;
+
+  /**
+   * Constructor for Indirect Resolver class.
+   *
+   * @param table   = decoded instructions of the image.
+   * @param bytes   = raw bytes of the image.
+   * @param entered = word addresses reached other than by falling through.
+   */
+  IndirectResolver(InstructionTable table, byte[] bytes, LongBitList entered) {
+    this.table = table;
+    this.bytes = bytes;
+    this.entered = entered;
+  }
+
+  /**
+   * Resolve the target of the indirect call or jump at a given address.
+   *
+   * @param pc = program counter of indirect instruction.
+   * @return target = word address of target, or InstructionTable.NO_TARGET if
+   *         it cannot be resolved.
+   */
+  int resolve(int pc) {
+    this.steps = 0;
+    int z = resolvePointer(pc);
+    return z < 0 || z >= this.table.size() ? InstructionTable.NO_TARGET : z;
+  }
+
+  /**
+   * Determine the value of Z on entry to a given instruction.
+   *
+   * @param pc = program counter of instruction.
+   * @return value = unsigned 16-bit value, or -1 if unknown.
+   */
+  private int resolvePointer(int pc) {
+    int low = resolveRegister(ZL, pc);
+    int high = low < 0 ? -1 : resolveRegister(ZH, pc);
+    return high < 0 ? -1 : high << 8 | low;
+  }
+
+  /**
+   * Determine the value of a register on entry to a given instruction, by
+   * scanning backwards for the instruction which defines it.
+   *
+   * @param register = register number.
+   * @param pc       = program counter of instruction.
+   * @return value = unsigned byte, or -1 if unknown.
+   */
+  private int resolveRegister(int register, int pc) {
+    int current = pc;
+    while (!this.entered.get(current) && ++this.steps <= MAX_STEPS) {
+      int previous = previous(current);
+      if (previous < 0) {
+        return -1;
+      }
+      switch (this.table.getFlow(previous)) {
+        case NEXT:
+        case FRAME:
+        case PUSH:
+        case POP:
+          break;
+        default:
+          // Control may not pass to the following instruction, or a call may
+          // have overwritten the register.
+          return -1;
+      }
+      AvrInstruction instruction = this.table.getInstruction(previous);
+      if (RegisterUse.writes(instruction, register)) {
+        return evaluate(register, previous, instruction);
+      }
+      current = previous;
+    }
+    return -1;
+  }
+
+  /**
+   * Determine the value written to a register by a given instruction.
+   *
+   * @param register    = register number.
+   * @param pc          = program counter of instruction.
+   * @param instruction = instruction which writes the register.
+   * @return value = unsigned byte, or -1 if unknown.
+   */
+  private int evaluate(int register, int pc, AvrInstruction instruction) {
+    Opcode opcode = instruction.getOpcode();
+    int rd = RegisterUse.getRegister(instruction);
+    int delta = pointerAdjustment(instruction);
+    if (delta != 0 && rd != register) {
+      // Side-effect on Z of a pointer instruction
+      int z = resolvePointer(pc);
+      return z < 0 ? -1 : byteOf((z + delta) & 0xFFFF, register);
+    }
+    switch (opcode) {
+      case LDI:
+        return ((RegisterImmediate) instruction).K & 0xFF;
+      case MOV:
+        return resolveRegister(((RegisterRegister) instruction).Rr, pc);
+      case MOVW:
+        return resolveRegister(((RegisterRegister) instruction).Rr + register - rd, pc);
+      case SUBI: {
+        int value = resolveRegister(register, pc);
+        return value < 0 ? -1 : (value - ((RegisterImmediate) instruction).K) & 0xFF;
+      }
+      case LPM:
+      case LPM_Z:
+      case LPM_Z_INC: {
+        int z = resolvePointer(pc);
+        return z < 0 || z >= this.bytes.length ? -1 : this.bytes[z] & 0xFF;
+      }
+      case ADIW:
+      case SBIW: {
+        if (rd != ZL) {
+          return -1;
+        }
+        int k = ((RegisterImmediate) instruction).K;
+        int z = resolvePointer(pc);
+        return z < 0 ? -1 : byteOf((z + (opcode == Opcode.ADIW ? k : -k)) & 0xFFFF, register);
+      }
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Determine how a given instruction adjusts the Z pointer as a side-effect.
+   *
+   * @param instruction = instruction which writes Z.
+   * @return delta = adjustment, or 0 if it does not simply adjust Z.
+   */
+  private static int pointerAdjustment(AvrInstruction instruction) {
+    switch (instruction.getOpcode()) {
+      case LD_Z_INC:
+      case ST_Z_INC:
+      case LPM_Z_INC:
+        return 1;
+      case LD_Z_DEC:
+      case ST_Z_DEC:
+        return -1;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Extract the byte of a 16-bit value held by a given half of Z.
+   *
+   * @param value    = 16-bit value.
+   * @param register = ZL or ZH.
+   * @return value = unsigned byte.
+   */
+  private static int byteOf(int value, int register) {
+    return register == ZL ? value & 0xFF : value >> 8;
+  }
+
+  /**
+   * Determine the address of the instruction before a given one. If the word
+   * two before begins a 32-bit instruction, then that is taken to be the
+   * previous instruction.
+   *
+   * @param pc = program counter of instruction.
+   * @return previous = program counter of previous instruction, or -1 if none.
+   */
+  private int previous(int pc) {
+    if (pc >= 2 && this.table.getWidth(pc - 2) == 2) {
+      return pc - 2;
+    }
+    return pc - 1;
+  }
+}
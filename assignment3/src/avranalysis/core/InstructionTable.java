@@ -0,0 +1,383 @@
+package avranalysis.core;
+
+import avranalysis.util.FlashMemory;
+import avranalysis.util.LongBitList;
+import java.util.Arrays;
+import javr.core.AVR;
+import javr.core.AvrDecoder;
+import javr.core.AvrInstruction;
+import javr.core.AvrInstruction.Opcode;
+import javr.memory.ByteMemory;
+
+/**
+ * A pre-decoded view of a firmware image. Every word address in the image is
+ * decoded exactly once, and the opcode, control flow class, width and any
+ * branch, call or skip target of the instruction starting at that address are
+ * held in dense tables indexed by word address.
+ *
+ * <p>
+ * These are looked up from the first word of each instruction in a table
+ * shared between images (see OpcodeTable), so no instruction is allocated
+ * while decoding. The instruction itself is only decoded when its operands are
+ * needed (e.g. to track the frame pointer), and is then kept. Since
+ * instructions are immutable, a table can still be shared between threads,
+ * which at worst decode the same instruction twice.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+public class InstructionTable {
+  /**
+   * Indicates an instruction which has no branch or call target.
+   */
+  public static final int NO_TARGET = Integer.MIN_VALUE;
+
+  /**
+   * The instruction decoded at each word address, or null if it has not been
+   * needed yet.
+   */
+  private final AvrInstruction[] instructions;
+
+  /**
+   * The raw bytes of the image, followed by a word of padding, from which
+   * instructions are decoded when needed.
+   */
+  private final ByteMemory padded;
+
+  /**
+   * The opcode of the instruction at each word address.
+   */
+  private final Opcode[] opcodes;
+
+  /**
+   * The control flow class of the instruction at each word address.
+   */
+  private final ControlFlow[] flows;
+
+  /**
+   * The width (in words) of the instruction at each word address.
+   */
+  private final byte[] widths;
+
+  /**
+   * The resolved (absolute) branch, call or skip target of the instruction at
+   * each word address, or NO_TARGET.
+   */
+  private final int[] targets;
+
+  /**
+   * The known function entry points, in ascending order.
+   */
+  private final int[] entries;
+
+  /**
+   * Records which word addresses are the targets of calls (direct, or indirect
+   * and resolved).
+   */
+  private final LongBitList called;
+
+  /**
+   * The basic blocks of the image.
+   */
+  private final BlockGraph blocks;
+
+  /**
+   * Constructor for Instruction Table class.
+   *
+   * @param firmware = firmware image to decode.
+   */
+  public InstructionTable(AVR.Memory firmware) {
+    this(pad(firmware));
+  }
+
+  /**
+   * Constructor for Instruction Table class, given a view of flash. The image
+   * is copied in bulk, rather than byte by byte.
+   *
+   * @param firmware = firmware image to decode.
+   */
+  public InstructionTable(FlashMemory firmware) {
+    this(pad(firmware));
+  }
+
+  /**
+   * Constructor for Instruction Table class, given a padded copy of the image.
+   *
+   * @param bytes = raw bytes of the image, followed by a word of padding.
+   */
+  private InstructionTable(byte[] bytes) {
+    int words = bytes.length / 2 - 1;
+    this.padded = new ByteMemory(bytes);
+    this.instructions = new AvrInstruction[words];
+    this.opcodes = new Opcode[words];
+    this.flows = new ControlFlow[words];
+    this.widths = new byte[words];
+    this.targets = new int[words];
+    int word = readWord(bytes, 0);
+    for (int pc = 0; pc < words; pc++) {
+      int second = readWord(bytes, pc + 1);
+      int entry = OpcodeTable.lookup(word);
+      this.opcodes[pc] = OpcodeTable.getOpcode(entry);
+      this.flows[pc] = OpcodeTable.getFlow(entry);
+      this.widths[pc] = (byte) OpcodeTable.getWidth(entry);
+      this.targets[pc] = OpcodeTable.getTarget(entry, pc, second);
+      word = second;
+    }
+    // A skip passes over the whole of the following instruction, which is only
+    // known once every width has been decoded.
+    for (int pc = 0; pc < words; pc++) {
+      if (this.flows[pc] == ControlFlow.SKIP) {
+        int next = pc + this.widths[pc];
+        this.targets[pc] = next < words ? next + this.widths[next] : next + 1;
+      }
+    }
+    resolveIndirect(bytes);
+    this.entries = toEntries();
+    this.called = toCalled();
+    this.blocks = new BlockGraph(this);
+  }
+
+  /**
+   * Copy a firmware image with a trailing word of padding, so that a 32-bit
+   * instruction starting in the last word can still be decoded.
+   *
+   * @param firmware = firmware image.
+   * @return bytes = padded copy of the image.
+   */
+  private static byte[] pad(AVR.Memory firmware) {
+    int size = firmware.size();
+    byte[] bytes = new byte[((size + 1) / 2 + 1) * 2];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = firmware.read(i);
+    }
+    return bytes;
+  }
+
+  /**
+   * Copy a view of flash with a trailing word of padding.
+   *
+   * @param firmware = firmware image.
+   * @return bytes = padded copy of the image.
+   */
+  private static byte[] pad(FlashMemory firmware) {
+    int size = firmware.size();
+    byte[] bytes = new byte[((size + 1) / 2 + 1) * 2];
+    firmware.copy(0, bytes, 0, size);
+    return bytes;
+  }
+
+  /**
+   * Read the (little endian) word at a given word address of a padded image.
+   *
+   * @param bytes = raw bytes of the image, followed by a word of padding.
+   * @param pc    = word address.
+   * @return word = unsigned word.
+   */
+  private static int readWord(byte[] bytes, int pc) {
+    return (bytes[2 * pc] & 0xFF) | (bytes[2 * pc + 1] & 0xFF) << 8;
+  }
+
+  /**
+   * Get the number of word addresses in this table.
+   *
+   * @return size = number of words in the firmware image.
+   */
+  public int size() {
+    return this.opcodes.length;
+  }
+
+  /**
+   * Get the instruction at a given word address, decoding it if this is the
+   * first time it is needed.
+   *
+   * @param pc = program counter.
+   * @return instruction = decoded instruction.
+   */
+  public AvrInstruction getInstruction(int pc) {
+    AvrInstruction instruction = this.instructions[pc];
+    if (instruction == null) {
+      instruction = new AvrDecoder().decode(this.padded, pc);
+      this.instructions[pc] = instruction;
+    }
+    return instruction;
+  }
+
+  /**
+   * Get the opcode of the instruction at a given word address.
+   *
+   * @param pc = program counter.
+   * @return opcode = opcode of instruction.
+   */
+  public Opcode getOpcode(int pc) {
+    return this.opcodes[pc];
+  }
+
+  /**
+   * Get the control flow class of the instruction at a given word address.
+   *
+   * @param pc = program counter.
+   * @return flow = control flow class of instruction.
+   */
+  public ControlFlow getFlow(int pc) {
+    return this.flows[pc];
+  }
+
+  /**
+   * Get the width of the instruction at a given word address.
+   *
+   * @param pc = program counter.
+   * @return width = width of instruction (in words).
+   */
+  public int getWidth(int pc) {
+    return this.widths[pc];
+  }
+
+  /**
+   * Get the absolute branch, call or skip target of the instruction at a given
+   * word address. The target of a skip is the instruction following the one
+   * which is skipped.
+   *
+   * @param pc = program counter.
+   * @return target = target address, or NO_TARGET.
+   */
+  public int getTarget(int pc) {
+    return this.targets[pc];
+  }
+
+  /**
+   * Get the known function entry points of the image. These are the targets of
+   * direct calls, together with the resolved targets of indirect calls and
+   * jumps, which lie within the image.
+   *
+   * @return entries = entry addresses in ascending order.
+   */
+  public int[] getFunctionEntries() {
+    return this.entries.clone();
+  }
+
+  /**
+   * Check whether the instruction at a given word address is the target of a
+   * call (direct, or indirect and resolved), and hence begins a function.
+   *
+   * @param pc = word address.
+   * @return true if called, false otherwise.
+   */
+  boolean isCalled(int pc) {
+    return pc >= 0 && pc < this.flows.length && this.called.get(pc);
+  }
+
+  /**
+   * Get the basic blocks of the image, which are built once when it is
+   * decoded.
+   *
+   * @return blocks = block graph.
+   */
+  BlockGraph getBlocks() {
+    return this.blocks;
+  }
+
+  /**
+   * Resolve the targets of any indirect calls and jumps in the image, using
+   * constant propagation on the Z register (see IndirectResolver). Targets
+   * which cannot be resolved are left as NO_TARGET.
+   *
+   * @param bytes = raw bytes of the image.
+   */
+  private void resolveIndirect(byte[] bytes) {
+    int words = this.flows.length;
+    LongBitList entered = null;
+    IndirectResolver resolver = null;
+    for (int pc = 0; pc < words; pc++) {
+      ControlFlow flow = this.flows[pc];
+      if (flow != ControlFlow.INDIRECT_CALL && flow != ControlFlow.INDIRECT_JUMP) {
+        continue;
+      } else if (resolver == null) {
+        // Determine which instructions can be reached other than by falling
+        // through, since the value of Z is not known on entry to them.
+        entered = new LongBitList(words);
+        for (int i = 0; i < words; i++) {
+          int target = this.targets[i];
+          if (target >= 0 && target < words) {
+            entered.set(target, true);
+          }
+        }
+        resolver = new IndirectResolver(this, bytes, entered);
+      }
+      this.targets[pc] = resolver.resolve(pc);
+    }
+  }
+
+  /**
+   * Determine the distinct function entry points within the image.
+   *
+   * @return entries = entry addresses in ascending order.
+   */
+  private int[] toEntries() {
+    int words = this.flows.length;
+    int[] result = new int[words];
+    int count = 0;
+    for (int pc = 0; pc < words; pc++) {
+      switch (this.flows[pc]) {
+        case CALL:
+        case INDIRECT_CALL:
+        case INDIRECT_JUMP: {
+          int target = this.targets[pc];
+          if (target >= 0 && target < words) {
+            result[count++] = target;
+          }
+          break;
+        }
+        default:
+          break;
+      }
+    }
+    Arrays.sort(result, 0, count);
+    int distinct = 0;
+    for (int i = 0; i < count; i++) {
+      if (distinct == 0 || result[i] != result[distinct - 1]) {
+        result[distinct++] = result[i];
+      }
+    }
+    return Arrays.copyOf(result, distinct);
+  }
+
+  /**
+   * Determine which word addresses within the image are the targets of calls.
+   *
+   * @return called = the addresses called.
+   */
+  private LongBitList toCalled() {
+    int words = this.flows.length;
+    LongBitList result = new LongBitList(words);
+    for (int pc = 0; pc < words; pc++) {
+      ControlFlow flow = this.flows[pc];
+      int target = this.targets[pc];
+      if ((flow == ControlFlow.CALL || flow == ControlFlow.INDIRECT_CALL) && target >= 0
+          && target < words) {
+        result.set(target, true);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Determine the control flow class of a given instruction. This is the class
+   * of its opcode, unless the instruction manipulates the frame pointer or the
+   * stack pointer directly.
+   *
+   * @param instruction = instruction to classify.
+   * @return flow = control flow class of instruction.
+   */
+  static ControlFlow toFlow(AvrInstruction instruction) {
+    ControlFlow flow = ControlFlow.of(instruction.getOpcode());
+    switch (flow) {
+      case NEXT:
+      case POP:
+      case CALL:
+        return FramePointer.affects(instruction) ? ControlFlow.FRAME : flow;
+      default:
+        return flow;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package avranalysis.core;
+
+import javr.core.AvrDecoder;
+import javr.core.AvrInstruction;
+import javr.core.AvrInstruction.AbsoluteAddress;
+import javr.core.AvrInstruction.FlagRelativeAddress;
+import javr.core.AvrInstruction.Opcode;
+import javr.core.AvrInstruction.RelativeAddress;
+import javr.memory.ByteMemory;
+
+/**
+ * A lookup table from the first word of an instruction to everything the
+ * analysis needs to know about it, other than its operands: the opcode, the
+ * control flow class, the width and the branch or call target. Each of the
+ * 65,536 possible first words has one entry, packed into an int, so the whole
+ * table takes 256 KB. The table is built once, by decoding every first word
+ * with AvrDecoder, and is shared by every image decoded thereafter. Hence, it
+ * agrees with AvrDecoder by construction, but an image can be decoded in
+ * constant time per word without allocating an instruction for each.
+ *
+ * <p>
+ * The opcode and width of an instruction are determined by its first word
+ * alone, and so is whether it manipulates the frame pointer or the stack
+ * pointer (see FramePointer). The only operand needed from the second word is
+ * the low half of the address of an absolute jump or call, which is combined
+ * with the high half held in the entry.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+final class OpcodeTable {
+  /**
+   * Indicates an entry for an instruction with no branch or call target.
+   */
+  private static final int NO_ADDRESS = 0;
+
+  /**
+   * Indicates an entry for an instruction whose target is relative to the
+   * following instruction.
+   */
+  private static final int RELATIVE = 1;
+
+  /**
+   * Indicates an entry for an instruction whose target is absolute.
+   */
+  private static final int ABSOLUTE = 2;
+
+  /**
+   * Every opcode, indexed by ordinal.
+   */
+  private static final Opcode[] OPCODES = Opcode.values();
+
+  /**
+   * Every control flow class, indexed by ordinal.
+   */
+  private static final ControlFlow[] FLOWS = ControlFlow.values();
+
+  /**
+   * The entry for each first word. Bits 0-7 hold the ordinal of the opcode,
+   * bits 8-11 the ordinal of the control flow class, bits 12-13 the width and
+   * bits 14-15 the kind of target. The upper half holds the signed offset of a
+   * relative target, or the high half of an absolute one.
+   */
+  private static final int[] ENTRIES = build();
+
+  /**
+   * Prevent instantiation.
+   */
+  private OpcodeTable() {
+  }
+
+  /**
+   * Get the entry for a given first word.
+   *
+   * @param word = first word of the instruction.
+   * @return entry = packed entry.
+   */
+  static int lookup(int word) {
+    return ENTRIES[word & 0xFFFF];
+  }
+
+  /**
+   * Get the opcode of the instruction described by a given entry.
+   *
+   * @param entry = packed entry.
+   * @return opcode = opcode of instruction.
+   */
+  static Opcode getOpcode(int entry) {
+    return OPCODES[entry & 0xFF];
+  }
+
+  /**
+   * Get the control flow class of the instruction described by a given entry.
+   *
+   * @param entry = packed entry.
+   * @return flow = control flow class of instruction.
+   */
+  static ControlFlow getFlow(int entry) {
+    return FLOWS[(entry >>> 8) & 0xF];
+  }
+
+  /**
+   * Get the width of the instruction described by a given entry.
+   *
+   * @param entry = packed entry.
+   * @return width = width of instruction (in words).
+   */
+  static int getWidth(int entry) {
+    return (entry >>> 12) & 0x3;
+  }
+
+  /**
+   * Resolve the absolute branch, jump or call target of the instruction
+   * described by a given entry.
+   *
+   * @param entry  = packed entry.
+   * @param pc     = program counter of instruction.
+   * @param second = second word of instruction (ignored unless it is needed).
+   * @return target = target address, or InstructionTable.NO_TARGET.
+   */
+  static int getTarget(int entry, int pc, int second) {
+    switch ((entry >>> 14) & 0x3) {
+      case RELATIVE:
+        return pc + getWidth(entry) + (entry >> 16);
+      case ABSOLUTE:
+        return (entry >>> 16) << 16 | (second & 0xFFFF);
+      default:
+        return InstructionTable.NO_TARGET;
+    }
+  }
+
+  /**
+   * Build the table, by decoding every possible first word (followed by a
+   * second word of zero).
+   *
+   * @return entries = entry for each first word.
+   */
+  private static int[] build() {
+    AvrDecoder decoder = new AvrDecoder();
+    byte[] bytes = new byte[4];
+    ByteMemory memory = new ByteMemory(bytes);
+    int[] entries = new int[0x10000];
+    for (int word = 0; word < entries.length; word++) {
+      bytes[0] = (byte) word;
+      bytes[1] = (byte) (word >> 8);
+      AvrInstruction instruction = decoder.decode(memory, 0);
+      int kind = NO_ADDRESS;
+      int operand = 0;
+      if (instruction instanceof RelativeAddress) {
+        kind = RELATIVE;
+        operand = ((RelativeAddress) instruction).k;
+      } else if (instruction instanceof FlagRelativeAddress) {
+        kind = RELATIVE;
+        operand = ((FlagRelativeAddress) instruction).k;
+      } else if (instruction instanceof AbsoluteAddress) {
+        kind = ABSOLUTE;
+        operand = ((AbsoluteAddress) instruction).k >>> 16;
+      }
+      entries[word] = instruction.getOpcode().ordinal()
+          | InstructionTable.toFlow(instruction).ordinal() << 8
+          | instruction.getWidth() << 12 | kind << 14 | operand << 16;
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,297 @@
+package avranalysis.core;
+
+import avranalysis.util.IntQueue;
+import avranalysis.util.LongBitList;
+import java.util.Arrays;
+
+/**
+ * Reconstructs a worst-case path through a firmware image from the function
+ * summaries of a completed analysis. Starting from reset, each function on the
+ * path is traversed again to determine whether its greatest height is reached
+ * locally or at one of its call sites, and the predecessor links recorded by
+ * the traversal are followed back from that point to the entry of the
+ * function. If the callee at a call site is responsible, the path continues
+ * into it. The path is then extended by the interrupt handlers which can be
+ * active at once, in the same way as the analysis combines them.
+ *
+ * <p>
+ * Predecessor links are held in a single array of integers sized to the image,
+ * which is only allocated here. Hence, the analysis itself pays nothing for
+ * the ability to reconstruct a path.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+final class PathTracer {
+  /**
+   * The pre-decoded instructions of the firmware image.
+   */
+  private final InstructionTable table;
+
+  /**
+   * The summaries of the functions reached, indexed by entry address.
+   */
+  private final FunctionSummary[] summaries;
+
+  /**
+   * The entry addresses of the interrupt handlers.
+   */
+  private final int[] handlers;
+
+  /**
+   * Traverses the functions on the path.
+   */
+  private final FunctionTraversal traversal;
+
+  /**
+   * The predecessor of each program counter within the function being
+   * traversed.
+   */
+  private final int[] preds;
+
+  /**
+   * Receives the steps of the path within each function.
+   */
+  private final IntQueue steps = new IntQueue();
+
+  /**
+   * Records which functions are already on the path.
+   */
+  private final LongBitList onPath;
+
+  /**
+   * The address of the instruction at each step of the path so far.
+   */
+  private int[] addresses = new int[16];
+
+  /**
+   * The number of bytes pushed by each step of the path so far.
+   */
+  private int[] bytes = new int[16];
+
+  /**
+   * The kind of each step of the path so far.
+   */
+  private StackPath.Kind[] kinds = new StackPath.Kind[16];
+
+  /**
+   * The number of steps in the path so far.
+   */
+  private int count;
+
+  /**
+   * The address at which the stack was found to grow without bound, or -1.
+   */
+  private int unboundedAt = -1;
+
+  /**
+   * Constructor for Path Tracer class.
+   *
+   * @param table     = pre-decoded instructions of the firmware image.
+   * @param summaries = summaries of the functions reached, indexed by entry
+   *                  address.
+   * @param handlers  = entry addresses of the interrupt handlers.
+   * @param traversal = traverses functions of the image.
+   */
+  PathTracer(InstructionTable table, FunctionSummary[] summaries, int[] handlers,
+      FunctionTraversal traversal) {
+    this.table = table;
+    this.summaries = summaries;
+    this.handlers = handlers;
+    this.traversal = traversal;
+    this.preds = new int[table.size()];
+    this.onPath = new LongBitList(table.size());
+  }
+
+  /**
+   * Reconstruct a path which produces the worst-case stack height of the
+   * image, including any interrupt handlers.
+   *
+   * @return path = worst-case path.
+   */
+  StackPath trace() {
+    if (this.table.size() == 0 || this.summaries[0] == null) {
+      return toPath();
+    }
+    follow(0);
+    // Every handler which enables interrupts can be active at once, with the
+    // deepest of the others innermost (as in StackAnalysis).
+    int innermost = -1;
+    for (int handler : this.handlers) {
+      FunctionSummary summary = this.summaries[handler];
+      if (summary.enablesInterrupts()) {
+        interrupt(handler);
+      } else if (innermost < 0
+          || summary.getMaxHeight() > this.summaries[innermost].getMaxHeight()) {
+        innermost = handler;
+      }
+    }
+    if (innermost >= 0) {
+      interrupt(innermost);
+    }
+    return toPath();
+  }
+
+  /**
+   * Extend the path with an interrupt which enters a given handler, unless
+   * the path is already unbounded.
+   *
+   * @param handler = entry address of the handler.
+   */
+  private void interrupt(int handler) {
+    if (this.unboundedAt < 0) {
+      add(handler, 2, StackPath.Kind.INTERRUPT);
+      this.onPath.clear();
+      follow(handler);
+    }
+  }
+
+  /**
+   * Extend the path through the function with a given entry address, and then
+   * through whichever of its callees is responsible for its greatest height.
+   *
+   * @param entry = entry address of the function.
+   */
+  private void follow(int entry) {
+    while (true) {
+      this.onPath.set(entry, true);
+      int height = this.summaries[entry].getMaxHeight();
+      FunctionTrace trace = this.traversal.traverseFunction(entry,
+          new BudgetTracker(AnalysisBudget.UNLIMITED));
+      if (trace.localHeight == height) {
+        // The greatest height is reached within the function itself
+        this.traversal.traverseWitness(entry, -1, this.preds, this.steps);
+        int end = extend(height == Integer.MAX_VALUE);
+        if (trace.unboundedLoop >= 0) {
+          // Reported at the head of the loop which grows the stack
+          this.unboundedAt = trace.unboundedLoop;
+        } else if (height == Integer.MAX_VALUE) {
+          this.unboundedAt = end < 0 ? entry : end;
+        }
+        return;
+      }
+      int site = -1;
+      int callee = -1;
+      boolean tail = false;
+      for (int i = 0; site < 0 && i < trace.callTargets.length; i++) {
+        int target = trace.callTargets[i];
+        int calleeHeight = 0;
+        if (target >= 0 && target < this.summaries.length && this.summaries[target] != null) {
+          calleeHeight = this.summaries[target].getMaxHeight();
+        }
+        int pushed = FunctionTrace.add(trace.callHeights[i], 2);
+        if (FunctionTrace.add(pushed, calleeHeight) == height) {
+          site = trace.callSites[i];
+          callee = target;
+          tail = trace.tailCalls[i];
+        }
+      }
+      if (site < 0) {
+        // Only possible for a recursive function which calls nothing else
+        this.unboundedAt = entry;
+        return;
+      }
+      this.traversal.traverseWitness(entry, site, this.preds, this.steps);
+      extend(false);
+      // A tail call pushes no return address
+      add(site, tail ? 0 : 2, StackPath.Kind.CALL);
+      if (callee < 0 || callee >= this.summaries.length || this.summaries[callee] == null) {
+        // A target outside the image accounts only for the return address
+        return;
+      } else if (this.onPath.get(callee)) {
+        // Re-entering a function already on the path, so the recursion is
+        // unbounded
+        this.unboundedAt = site;
+        return;
+      }
+      entry = callee;
+    }
+  }
+
+  /**
+   * Extend the path by the steps recovered within a function. Bytes pushed
+   * are added to the path, and bytes popped are removed from the steps added
+   * within the function (most recent first). Bytes popped beyond these were
+   * on the stack before the function was entered, so are added as a step which
+   * pops them, to keep the height of the path in line with the analysis.
+   *
+   * @param unbounded = whether the last step makes the stack unbounded.
+   * @return address = address of the last step, or -1 if there were none.
+   */
+  private int extend(boolean unbounded) {
+    int base = this.count;
+    int[] recovered = new int[this.steps.size()];
+    for (int i = 0; i < recovered.length; i++) {
+      recovered[i] = this.steps.poll();
+    }
+    // Steps were recovered from last to first
+    for (int i = recovered.length - 2; i >= 0; i -= 2) {
+      int pc = recovered[i];
+      int delta = recovered[i + 1];
+      if (delta == Integer.MAX_VALUE) {
+        // The step closing a loop which grows the stack adds nothing finite
+        continue;
+      } else if (delta > 0) {
+        add(pc, delta, StackPath.Kind.PUSH);
+      } else {
+        pop(pc, -delta, base);
+      }
+    }
+    return unbounded && recovered.length > 0 ? recovered[0] : -1;
+  }
+
+  /**
+   * Remove a number of bytes from the top of the path, without removing any
+   * step added before a given index, or any step which pops. Whatever cannot be
+   * removed is added as a step which pops it.
+   *
+   * @param address = address of the instruction which pops.
+   * @param amount  = number of bytes to remove.
+   * @param base    = index of the first step which can be removed.
+   */
+  private void pop(int address, int amount, int base) {
+    while (amount > 0 && this.count > base && this.bytes[this.count - 1] > 0) {
+      int top = this.count - 1;
+      int removed = Math.min(amount, this.bytes[top]);
+      this.bytes[top] -= removed;
+      amount -= removed;
+      if (this.bytes[top] == 0) {
+        this.count--;
+      }
+    }
+    if (amount > 0) {
+      add(address, -amount, StackPath.Kind.POP);
+    }
+  }
+
+  /**
+   * Add a step to the end of the path.
+   *
+   * @param address = address of the instruction.
+   * @param amount  = number of bytes pushed (or popped, if negative).
+   * @param kind    = kind of step.
+   */
+  private void add(int address, int amount, StackPath.Kind kind) {
+    if (this.count == this.addresses.length) {
+      this.addresses = Arrays.copyOf(this.addresses, this.count * 2);
+      this.bytes = Arrays.copyOf(this.bytes, this.count * 2);
+      this.kinds = Arrays.copyOf(this.kinds, this.count * 2);
+    }
+    this.addresses[this.count] = address;
+    this.bytes[this.count] = amount;
+    this.kinds[this.count] = kind;
+    this.count++;
+  }
+
+  /**
+   * Construct the path from the steps added so far.
+   *
+   * @return path = stack path.
+   */
+  private StackPath toPath() {
+    return new StackPath(Arrays.copyOf(this.addresses, this.count),
+        Arrays.copyOf(this.bytes, this.count), Arrays.copyOf(this.kinds, this.count),
+        this.unboundedAt);
+  }
+}
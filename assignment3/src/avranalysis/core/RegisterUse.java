@@ -0,0 +1,121 @@
+package avranalysis.core;
+
+import javr.core.AvrInstruction;
+import javr.core.AvrInstruction.Register;
+import javr.core.AvrInstruction.RegisterAbsoluteAddress;
+import javr.core.AvrInstruction.RegisterBit;
+import javr.core.AvrInstruction.RegisterDisplacement;
+import javr.core.AvrInstruction.RegisterImmediate;
+import javr.core.AvrInstruction.RegisterIo;
+import javr.core.AvrInstruction.RegisterRegister;
+
+/**
+ * Determines which general purpose registers an instruction writes. This is
+ * needed wherever the analysis tracks the value of a register, such as the
+ * frame pointer (Y) or the target of an indirect call (Z).
+ *
+ * @author Caitlin
+ *
+ */
+final class RegisterUse {
+  /**
+   * Prevent instantiation.
+   */
+  private RegisterUse() {
+  }
+
+  /**
+   * Check whether a given instruction writes a given register, either as its
+   * destination or as a side-effect (e.g. the post-increment of a pointer).
+   *
+   * @param instruction = instruction to check.
+   * @param register    = register number (0 - 31).
+   * @return true if written, false otherwise.
+   */
+  static boolean writes(AvrInstruction instruction, int register) {
+    switch (instruction.getOpcode()) {
+      case ADIW:
+      case SBIW:
+      case MOVW: {
+        // These write a register pair
+        int rd = getRegister(instruction);
+        return rd == register || rd + 1 == register;
+      }
+      case LD_X_INC:
+      case LD_X_DEC:
+        return register == 26 || register == 27 || getRegister(instruction) == register;
+      case LD_Y_INC:
+      case LD_Y_DEC:
+        return register == 28 || register == 29 || getRegister(instruction) == register;
+      case LD_Z_INC:
+      case LD_Z_DEC:
+      case LPM_Z_INC:
+        return register == 30 || register == 31 || getRegister(instruction) == register;
+      case ST_X_INC:
+      case ST_X_DEC:
+        return register == 26 || register == 27;
+      case ST_Y_INC:
+      case ST_Y_DEC:
+        return register == 28 || register == 29;
+      case ST_Z_INC:
+      case ST_Z_DEC:
+        return register == 30 || register == 31;
+      case LPM:
+      case ELPM:
+        // These load into r0 implicitly
+        return register == 0;
+      case MUL:
+      case MULS:
+      case MULSU:
+      case FMUL:
+      case FMULS:
+      case FMULSU:
+        // These write their product into r1:r0
+        return register == 0 || register == 1;
+      case CP:
+      case CPC:
+      case CPI:
+      case CPSE:
+      case SBRC:
+      case SBRS:
+      case BST:
+      case PUSH:
+      case ST_X:
+      case ST_Y:
+      case STD_Y_Q:
+      case ST_Z:
+      case STD_Z_Q:
+      case STS_DATA_WIDE:
+        // These only read their register operand
+        return false;
+      default:
+        return getRegister(instruction) == register;
+    }
+  }
+
+  /**
+   * Get the (first) register operand of a given instruction.
+   *
+   * @param instruction = instruction to examine.
+   * @return register = register operand, or -1 if none.
+   */
+  static int getRegister(AvrInstruction instruction) {
+    if (instruction instanceof Register) {
+      return ((Register) instruction).Rd;
+    } else if (instruction instanceof RegisterRegister) {
+      return ((RegisterRegister) instruction).Rd;
+    } else if (instruction instanceof RegisterImmediate) {
+      return ((RegisterImmediate) instruction).Rd;
+    } else if (instruction instanceof RegisterIo) {
+      return ((RegisterIo) instruction).Rd;
+    } else if (instruction instanceof RegisterBit) {
+      return ((RegisterBit) instruction).Rd;
+    } else if (instruction instanceof RegisterDisplacement) {
+      return ((RegisterDisplacement) instruction).Rd;
+    } else if (instruction instanceof RegisterAbsoluteAddress) {
+      return ((RegisterAbsoluteAddress) instruction).Rd;
+    } else {
+      return -1;
+    }
+  }
+}
@@ -1,62 +1,160 @@
 package avranalysis.core;
 
+import avranalysis.util.FlashMemory;
+import avranalysis.util.IntQueue;
+import avranalysis.util.LongBitList;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import javr.core.AvrDecoder;
-import javr.core.AvrInstruction;
-import javr.core.AvrInstruction.AbsoluteAddress;
-import javr.core.AvrInstruction.RelativeAddress;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javr.core.AvrInstruction.Opcode;
 import javr.io.HexFile;
-import javr.memory.ElasticByteMemory;
 
 /**
  * Stack Analysis class.
- * 
+ *
  * @author Caitlin
  *
  */
 public class StackAnalysis {
+  /**
+   * The number of interrupt vectors on the ATtiny85, including reset.
+   */
+  public static final int ATTINY85_VECTORS = 15;
+
   /**
    * Contains the raw bytes of the given firmware image being analysed.
    */
-  private ElasticByteMemory firmware;
+  private FlashMemory firmware;
 
   /**
-   * The decoder is used for actually decoding an instruction.
+   * The number of words in the firmware image.
    */
-  private AvrDecoder decoder = new AvrDecoder();
+  private int words;
 
   /**
-   * Records the maximum height seen so far.
+   * The pre-decoded instructions of the firmware image, or null if they have
+   * not yet been needed.
    */
-  private int maxHeight;
-  
+  private InstructionTable table;
+
   /**
-   * Records a list of all the previous instructions.
+   * Records the summary computed for each function, indexed by its entry
+   * address. Each summary is computed once, and reused at every call site.
    */
-  private ArrayList<AvrInstruction> previousIn = new ArrayList<AvrInstruction>();
-  
+  private FunctionSummary[] summaries;
+
   /**
-   * Records a list of all the previous stack heights.
+   * The call graph of the functions reached by the most recent call to apply().
    */
-  private ArrayList<Integer> previousStackHeight = new ArrayList<Integer>();
-  
-  /** 
-   * Records a list of all the previous program counter values. 
+  private CallGraph callGraph;
+
+  /**
+   * Traverses function bodies when the analysis is applied sequentially.
    */
-  private ArrayList<Integer> previousPC = new ArrayList<Integer>();
-  
-  
+  private FunctionTraversal traversal;
+
+  /**
+   * Limits the work performed by each call to apply().
+   */
+  private AnalysisBudget budget = AnalysisBudget.UNLIMITED;
+
+  /**
+   * The limit exceeded by the most recent call to apply(), or null.
+   */
+  private AnalysisBudget.Kind exhausted;
+
+  /**
+   * The number of interrupt vectors (including reset) at the start of the
+   * image, or zero if interrupts are not analysed.
+   */
+  private int vectors;
+
+  /**
+   * The entry addresses of the interrupt handlers found by the most recent call
+   * to apply().
+   */
+  private int[] handlers = new int[0];
+
+  /**
+   * The entry addresses of the functions which were traversed without tail
+   * calls into later functions by the most recent call to apply() (see
+   * inlineCycles()).
+   */
+  private int[] inlined = new int[0];
+
+  /**
+   * The maximum stack height of the main program (i.e. from reset), as found by
+   * the most recent call to apply().
+   */
+  private int mainHeight;
+
+  /**
+   * The maximum stack height added by interrupt handlers on top of the main
+   * program, as found by the most recent call to apply().
+   */
+  private int interruptHeight;
+
+  /**
+   * The local results of traversing each function by the most recent call to
+   * apply(), indexed by entry address, or null if the budget was exhausted.
+   */
+  private FunctionTrace[] traces;
+
+  /**
+   * The traces which remain valid for the current image, indexed by entry
+   * address, whilst update() is applying the analysis. Otherwise, null.
+   */
+  private FunctionTrace[] reusable;
+
+  /**
+   * The number of functions traversed (rather than reused) by the most recent
+   * call to apply() or update().
+   */
+  private int traversed;
+
+  /**
+   * The cache of results from previous analyses, or null.
+   */
+  private AnalysisCache cache;
 
   /**
    * Constructor for Stack Analysis class.
-   * 
+   *
    * @param hf = hexFile to read
    */
   public StackAnalysis(HexFile hf) {
-    // Create firmware memory
-    this.firmware = new ElasticByteMemory();
-    // Upload image to firmware memory
-    hf.uploadTo(this.firmware);
+    load(hf);
+  }
+
+  /**
+   * Constructor for Stack Analysis class, given the contents of flash directly
+   * (e.g. as loaded by HexLoader). The array is used as it is, rather than
+   * copied, so must not be modified afterwards.
+   *
+   * @param flash = contents of the firmware image, from address zero.
+   */
+  public StackAnalysis(byte[] flash) {
+    load(FlashMemory.wrap(flash));
+  }
+
+  /**
+   * Constructor for Stack Analysis class, given a view of flash (e.g. backed by
+   * a direct or mapped buffer).
+   *
+   * @param flash = contents of the firmware image, from address zero.
+   */
+  public StackAnalysis(FlashMemory flash) {
+    load(flash);
   }
 
   /**
@@ -66,227 +164,849 @@ public class StackAnalysis {
    * @return maxHeight = height of stack.
    */
   public int apply() {
-    // Reset the maximum, height
-    this.maxHeight = 0;
-    // Traverse instructions starting at beginning
-    traverse(0, 0);
-    // Return the maximum height observed
-    return this.maxHeight;
-    
-  }
-
-  /**
-   * Traverse the instruction at a given pc address, assuming the stack has a
-   * given height on entry.
-   *
-   * @param pc            Program Counter of instruction to traverse
-   * @param currentHeight Current height of the stack at this point (in bytes)
-   */
-  private void traverse(int pc, int currentHeight) {
-    // Check whether current stack height is maximum
-    this.maxHeight = Math.max(this.maxHeight, currentHeight);
-    // Check whether we have terminated or not
-    if ((pc * 2) >= this.firmware.size()) {
-      // We've gone over end of instruction sequence, so stop.
-      return;
-    }
-    // Process instruction at this address
-    AvrInstruction instruction = decodeInstructionAt(pc);
-    // Move to the next logical instruction as this is always the starting point.
-    int next = pc + instruction.getWidth();
-    //
-    process(instruction, next, currentHeight);
-  }
-
-  /**
-   * Process the effect of a given instruction. Switch statement to traverse differently depending 
-   * on what the instruction is. 
-   *
-   * @param instruction   Instruction to process
-   * @param pc            Program counter of following instruction
-   * @param currentHeight Current height of the stack at this point (in bytes)
-   */
-  private void process(AvrInstruction instruction, int pc, int currentHeight) {
-    switch (instruction.getOpcode()) {
-      case BREQ: 
-      case BRGE: 
-      case BRLT: {
-        RelativeAddress branch = (RelativeAddress) instruction;
-        if (branch.k != -1 && !previouslyVisited(instruction, currentHeight, pc)) {
-          addCurrentValues(instruction, pc, currentHeight);
-          int size = this.previousIn.size();
-          traverse(pc + branch.k, currentHeight);
-          //Once it had traversed down a branch, then remove the instructions
-          //that it had seen down that branch
-          traverse(pc, currentHeight);
-          removeInstructions(size);
-        }
-        
-        break;
+    return apply(null);
+  }
+
+  /**
+   * Apply the stack analysis to the given firmware image producing a maximum
+   * stack usage (in bytes). The functions of the image are traversed in
+   * parallel on a given pool, and the result is identical to that of the
+   * sequential analysis. If the budget is exhausted, the stack is reported as
+   * unbounded and getExhausted() identifies the limit which was exceeded. If
+   * interrupt vectors have been set, then the worst-case height of interrupt
+   * handlers is added to that of the main program.
+   *
+   * @param pool = pool on which to traverse functions, or null to traverse
+   *             them sequentially on the calling thread.
+   * @return maxHeight = height of stack.
+   */
+  public int apply(ForkJoinPool pool) {
+    return analyse(pool, null);
+  }
+
+  /**
+   * Replace the firmware image with a modified version of it, and reapply the
+   * stack analysis incrementally (see update(HexFile, ForkJoinPool)).
+   *
+   * @param hf = modified hexFile to read.
+   * @return maxHeight = height of stack.
+   */
+  public int update(HexFile hf) {
+    return update(hf, null);
+  }
+
+  /**
+   * Replace the firmware image with a modified version of it, and reapply the
+   * stack analysis incrementally. A function is traversed again only if one of
+   * the words occupied by the instructions reached within it has changed, and
+   * a summary is recomputed only if its function was traversed again or it
+   * calls (directly or indirectly) one whose summary was recomputed. The result
+   * is identical to that of apply() on the modified image. This works best
+   * when functions remain at the same addresses (e.g. when padding is reserved
+   * after them), since a function which has moved is treated as changed.
+   *
+   * @param hf   = modified hexFile to read.
+   * @param pool = pool on which to traverse functions, or null to traverse
+   *             them sequentially on the calling thread.
+   * @return maxHeight = height of stack.
+   */
+  public int update(HexFile hf, ForkJoinPool pool) {
+    FlashMemory previous = this.firmware;
+    InstructionTable decoded = this.table;
+    load(hf);
+    if (this.traces == null) {
+      return analyse(pool, null);
+    }
+    decode();
+    return analyse(pool, unchanged(previous, decoded));
+  }
+
+  /**
+   * Get the number of functions traversed by the most recent call to apply()
+   * or update(). Functions whose previous traces were reused are not counted.
+   *
+   * @return traversed = number of functions traversed.
+   */
+  public int getTraversedCount() {
+    return this.traversed;
+  }
+
+  /**
+   * Set the cache used by subsequent calls to apply() and update(). If the
+   * cache holds the results for the firmware image, then these are used
+   * without decoding or traversing the image at all. Otherwise, the results
+   * are stored in the cache, unless the budget is exhausted.
+   *
+   * @param cache = cache of results, or null for none.
+   */
+  public void setCache(AnalysisCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Get the cache used by each call to apply() and update().
+   *
+   * @return cache = cache of results, or null for none.
+   */
+  public AnalysisCache getCache() {
+    return this.cache;
+  }
+
+  /**
+   * Upload a given firmware image. Its instructions are decoded when first
+   * needed, since none are needed if the results are already cached.
+   *
+   * @param hf = hexFile to read.
+   */
+  private void load(HexFile hf) {
+    // Copy the data records straight into a fixed-size flash image
+    load(FlashMemory.of(hf));
+  }
+
+  /**
+   * Use a given firmware image. Its instructions are decoded when first
+   * needed.
+   *
+   * @param flash = contents of the image.
+   */
+  private void load(FlashMemory flash) {
+    this.firmware = flash;
+    this.words = (this.firmware.size() + 1) / 2;
+    this.table = null;
+    this.traversal = null;
+  }
+
+  /**
+   * Decode every instruction in the firmware image once, unless this has
+   * already been done.
+   */
+  private void decode() {
+    if (this.table == null) {
+      this.table = new InstructionTable(this.firmware);
+      this.traversal = new FunctionTraversal(this.table);
+    }
+  }
+
+  /**
+   * Apply the stack analysis to the current firmware image, reusing any traces
+   * which remain valid for it.
+   *
+   * @param pool     = pool on which to traverse functions, or null.
+   * @param reusable = valid traces indexed by entry address, or null.
+   * @return maxHeight = height of stack.
+   */
+  private int analyse(ForkJoinPool pool, FunctionTrace[] reusable) {
+    FunctionSummary[] previous = this.summaries;
+    // Reset the summaries
+    this.summaries = new FunctionSummary[this.words];
+    this.traces = null;
+    this.traversed = 0;
+    this.exhausted = null;
+    this.handlers = new int[0];
+    this.inlined = new int[0];
+    this.mainHeight = 0;
+    this.interruptHeight = 0;
+    if (!inImage(0)) {
+      // Nothing to analyse
+      this.callGraph = new CallGraph(new int[0], new int[0][]);
+      return 0;
+    }
+    String key = null;
+    if (this.cache != null) {
+      key = AnalysisCache.toKey(this.firmware, this.vectors);
+      AnalysisCache.Entry entry = this.cache.load(key, this.words);
+      if (entry != null) {
+        return restore(entry);
       }
-      case SBRS: {
-        addCurrentValues(instruction, pc, currentHeight);
-        int size = this.previousIn.size();
-        traverse(pc, currentHeight);
-        traverse(pc + 1, currentHeight);
-        removeInstructions(size);
-        
-        break;
+    }
+    decode();
+    this.traversal.setInlined(this.inlined);
+    BudgetTracker tracker = new BudgetTracker(this.budget);
+    // Traverse the functions reachable from reset and from every handler
+    this.handlers = findHandlers();
+    int[] roots = new int[this.handlers.length + 1];
+    System.arraycopy(this.handlers, 0, roots, 1, this.handlers.length);
+    this.reusable = reusable;
+    FunctionTrace[] traces;
+    try {
+      traces = pool == null ? discover(roots, tracker) : discover(roots, tracker, pool);
+    } finally {
+      this.reusable = null;
+    }
+    if (!tracker.isExhausted()) {
+      traces = inlineCycles(traces, roots, tracker);
+    }
+    for (int pc = 0; pc < traces.length; pc++) {
+      if (traces[pc] != null && (reusable == null || traces[pc] != reusable[pc])) {
+        this.traversed++;
       }
-      case CALL: {
-        AbsoluteAddress branch = (AbsoluteAddress) instruction;
-        if (branch.k != -1) {
-          addCurrentValues(instruction, pc, currentHeight);
-          int size = this.previousIn.size();
-          traverse(branch.k, currentHeight + 2);
-          removeInstructions(size);
-          
-          
-        }
-        addCurrentValues(instruction, pc, currentHeight);
-        int size = this.previousIn.size();
-        traverse(pc, currentHeight);
-        removeInstructions(size);
-        
-        break;
+    }
+    if (!tracker.isExhausted()) {
+      // Summarise the functions bottom-up over the call graph
+      summarise(traces, reusable == null ? null : previous, reusable, tracker);
+    }
+    if (tracker.isExhausted()) {
+      // Give up, and fall back to the sound over-approximation
+      this.exhausted = tracker.getExhausted();
+      this.summaries = new FunctionSummary[this.words];
+      this.mainHeight = Integer.MAX_VALUE;
+      this.interruptHeight = Integer.MAX_VALUE;
+      return Integer.MAX_VALUE;
+    }
+    this.traces = traces;
+    this.mainHeight = this.summaries[0].getMaxHeight();
+    this.interruptHeight = toInterruptHeight();
+    if (key != null) {
+      this.cache.store(key, toEntry());
+    }
+    return FunctionTrace.add(this.mainHeight, this.interruptHeight);
+  }
+
+  /**
+   * Restore the results of a previous analysis of this image from the cache.
+   *
+   * @param entry = cached results.
+   * @return maxHeight = height of stack.
+   */
+  private int restore(AnalysisCache.Entry entry) {
+    int[] nodes = new int[entry.summaries.length];
+    int[][] edges = new int[entry.summaries.length][];
+    for (int i = 0; i < nodes.length; i++) {
+      FunctionSummary summary = entry.summaries[i];
+      this.summaries[summary.getEntry()] = summary;
+      nodes[i] = summary.getEntry();
+      edges[i] = summary.getCallees();
+    }
+    this.callGraph = new CallGraph(nodes, edges);
+    this.handlers = entry.handlers;
+    this.inlined = entry.inlined;
+    this.mainHeight = entry.mainHeight;
+    this.interruptHeight = entry.interruptHeight;
+    return FunctionTrace.add(this.mainHeight, this.interruptHeight);
+  }
+
+  /**
+   * Package the results of the most recent analysis for the cache.
+   *
+   * @return entry = results to cache.
+   */
+  private AnalysisCache.Entry toEntry() {
+    FunctionSummary[] reached = new FunctionSummary[this.callGraph.size()];
+    int i = 0;
+    for (int node : this.callGraph.getNodes()) {
+      reached[i++] = this.summaries[node];
+    }
+    return new AnalysisCache.Entry(this.words, this.mainHeight, this.interruptHeight,
+        this.handlers, this.inlined, reached);
+  }
+
+  /**
+   * Set the number of interrupt vectors at the start of the image (including
+   * reset), so that every interrupt handler is analysed by subsequent calls to
+   * apply(). Zero means interrupts are not analysed, which is the default.
+   *
+   * @param vectors = number of interrupt vectors (e.g. ATTINY85_VECTORS).
+   */
+  public void setInterruptVectors(int vectors) {
+    if (vectors < 0) {
+      throw new IllegalArgumentException("invalid number of vectors: " + vectors);
+    }
+    this.vectors = vectors;
+  }
+
+  /**
+   * Get the entry addresses of the interrupt handlers found by the most recent
+   * call to apply().
+   *
+   * @return handlers = distinct entry addresses in ascending order.
+   */
+  public int[] getInterruptHandlers() {
+    return this.handlers.clone();
+  }
+
+  /**
+   * Get the maximum stack height of the main program alone (i.e. from reset),
+   * as found by the most recent call to apply().
+   *
+   * @return mainHeight = height of stack, or Integer.MAX_VALUE if unbounded.
+   */
+  public int getMainHeight() {
+    return this.mainHeight;
+  }
+
+  /**
+   * Get the maximum stack height which interrupt handlers can add on top of the
+   * main program, as found by the most recent call to apply().
+   *
+   * @return interruptHeight = height of stack, or Integer.MAX_VALUE if
+   *         unbounded.
+   */
+  public int getInterruptHeight() {
+    return this.interruptHeight;
+  }
+
+  /**
+   * Set the limits on the work performed by each subsequent call to apply().
+   *
+   * @param budget = limits on the analysis.
+   */
+  public void setBudget(AnalysisBudget budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * Get the limits on the work performed by each call to apply().
+   *
+   * @return budget = limits on the analysis.
+   */
+  public AnalysisBudget getBudget() {
+    return this.budget;
+  }
+
+  /**
+   * Get the limit which was exceeded by the most recent call to apply(), in
+   * which case the stack was reported as unbounded.
+   *
+   * @return kind = limit exceeded, or null if the analysis completed.
+   */
+  public AnalysisBudget.Kind getExhausted() {
+    return this.exhausted;
+  }
+
+  /**
+   * Get the summary computed for the function with a given entry address by the
+   * most recent call to apply().
+   *
+   * @param entry = entry address of the function.
+   * @return summary = function summary, or null if it was not reached.
+   */
+  public FunctionSummary getSummary(int entry) {
+    if (this.summaries == null || !inImage(entry)) {
+      return null;
+    }
+    return this.summaries[entry];
+  }
+
+  /**
+   * Get the call graph of the functions reached by the most recent call to
+   * apply().
+   *
+   * @return callGraph = call graph, or null if apply() has not been called or
+   *         the budget was exhausted before every function was reached.
+   */
+  public CallGraph getCallGraph() {
+    return this.callGraph;
+  }
+
+  /**
+   * Write the disassembly of every instruction reached by the most recent call
+   * to apply(), annotated with the interval of stack heights on entry to it.
+   * Heights are measured from reset, except that code reached only from an
+   * interrupt handler is measured from the start of the handler (including the
+   * return address pushed by the interrupt). Each line is written as soon as it
+   * is rendered. The writer is flushed, but not closed.
+   *
+   * @param out = destination of the annotation.
+   * @throws IOException if the annotation cannot be written.
+   */
+  public void annotate(Writer out) throws IOException {
+    if (this.callGraph == null) {
+      throw new IllegalStateException("no call graph to annotate");
+    }
+    decode();
+    new HeightAnnotator(this.table, this.callGraph, this.handlers, this.inlined).write(out);
+  }
+
+  /**
+   * Write the annotated disassembly of every instruction reached by the most
+   * recent call to apply(), as ASCII text. The stream is flushed, but not
+   * closed.
+   *
+   * @param out = destination of the annotation.
+   * @throws IOException if the annotation cannot be written.
+   */
+  public void annotate(OutputStream out) throws IOException {
+    annotate(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII)));
+  }
+
+  /**
+   * Reconstruct a concrete path which produces the stack height found by the
+   * most recent call to apply(): the call sites, push points and interrupts
+   * whose bytes are on the stack when that height is reached. Only the
+   * functions along the path are traversed again, so nothing is recorded for
+   * this by apply() itself.
+   *
+   * @return path = worst-case path.
+   */
+  public StackPath getWorstCasePath() {
+    if (this.callGraph == null) {
+      throw new IllegalStateException("no call graph to trace");
+    }
+    decode();
+    this.traversal.setInlined(this.inlined);
+    return new PathTracer(this.table, this.summaries, this.handlers, this.traversal).trace();
+  }
+
+  /**
+   * Take an immutable snapshot of the firmware image and the results of the
+   * most recent call to apply(), which can be shared between threads (see
+   * Firmware). The snapshot is unaffected by any later use of this analysis.
+   * The analysis must have been applied without exhausting its budget, since
+   * otherwise there are no summaries for the snapshot to hold.
+   *
+   * @return firmware = snapshot of the image and its analysis.
+   * @throws IllegalStateException if apply() has not been called, or the
+   *                               budget was exhausted.
+   */
+  public Firmware toFirmware() {
+    if (this.exhausted != null) {
+      throw new IllegalStateException("budget exhausted (" + this.exhausted
+          + "), so there are no summaries to snapshot");
+    } else if (this.callGraph == null) {
+      throw new IllegalStateException("no call graph to snapshot");
+    }
+    decode();
+    return new Firmware(this.table, this.summaries.clone(), this.callGraph,
+        this.handlers.clone(), this.inlined.clone(), this.mainHeight, this.interruptHeight);
+  }
+
+  /**
+   * Traverse every function reachable from a given set of entry addresses.
+   * Each function is traversed exactly once, regardless of how many times it is
+   * called (or from how many roots), and the call graph is constructed from the
+   * results.
+   *
+   * @param roots   = entry addresses of the first functions.
+   * @param tracker = tracks the work performed against the budget.
+   * @return traces = the local results of traversing each function, indexed by
+   *         entry address.
+   */
+  private FunctionTrace[] discover(int[] roots, BudgetTracker tracker) {
+    FunctionTrace[] traces = new FunctionTrace[this.words];
+    ArrayList<FunctionTrace> reached = new ArrayList<FunctionTrace>();
+    LongBitList discovered = new LongBitList(this.words);
+    IntQueue entries = new IntQueue();
+    for (int root : roots) {
+      if (discovered.add(root)) {
+        entries.add(root);
       }
-      case RCALL: {
-        RelativeAddress branch = (RelativeAddress) instruction;
-        if (branch.k != -1 && !previouslyVisited(instruction, currentHeight, pc)) {
-          addCurrentValues(instruction, pc, currentHeight);
-          int size = this.previousIn.size();
-          traverse(pc + branch.k, currentHeight + 2);
-          removeInstructions(size);
-        }
-        
-        addCurrentValues(instruction, pc, currentHeight);
-        int size = this.previousIn.size();
-        traverse(pc, currentHeight);
-        removeInstructions(size);
-        
-        break;
+    }
+    while (!entries.isEmpty() && !tracker.isExhausted()) {
+      int entry = entries.poll();
+      FunctionTrace trace = reuse(entry);
+      if (trace == null) {
+        trace = this.traversal.traverseFunction(entry, tracker);
       }
-      case JMP: {
-        AbsoluteAddress branch = (AbsoluteAddress) instruction;
-        if (branch.k != -1) {
-          addCurrentValues(instruction, pc, currentHeight);
-          int size = this.previousIn.size();
-          traverse(branch.k, currentHeight);
-          removeInstructions(size);
-          
+      traces[trace.entry] = trace;
+      reached.add(trace);
+      for (int callee : trace.callees) {
+        if (discovered.add(callee)) {
+          entries.add(callee);
         }
-        break;
       }
-      case RJMP: {
-        RelativeAddress branch = (RelativeAddress) instruction;
-        if (branch.k != -1 && !previouslyVisited(instruction, currentHeight, pc)) {
-          addCurrentValues(instruction, pc, currentHeight);
-          int size = this.previousIn.size();
-          traverse(pc + branch.k, currentHeight);
-          removeInstructions(size);
-        }
-        //
-        break;
+    }
+    this.callGraph = tracker.isExhausted() ? null : toCallGraph(reached);
+    return traces;
+  }
+
+  /**
+   * Traverse every function reachable from a given set of entry addresses in
+   * parallel.
+   * A task is forked for each function as it is discovered, and each function
+   * is claimed by exactly one task. Every task borrows its own scratch state,
+   * which is returned to a shared pool when it finishes. Tasks never wait for
+   * the tasks they fork, so deep call chains cannot overflow the Java stack.
+   *
+   * @param roots   = entry addresses of the first functions.
+   * @param tracker = tracks the work performed against the budget.
+   * @param pool    = pool on which to traverse functions.
+   * @return traces = the local results of traversing each function, indexed by
+   *         entry address.
+   */
+  private FunctionTrace[] discover(int[] roots, BudgetTracker tracker, ForkJoinPool pool) {
+    int size = this.words;
+    AtomicReferenceArray<FunctionTrace> results = new AtomicReferenceArray<FunctionTrace>(size);
+    AtomicIntegerArray claimed = new AtomicIntegerArray(size);
+    ConcurrentLinkedQueue<FunctionTraversal> scratch =
+        new ConcurrentLinkedQueue<FunctionTraversal>();
+    for (int root : roots) {
+      if (claimed.compareAndSet(root, 0, 1)) {
+        pool.invoke(new TraceTask(null, root, results, claimed, scratch, tracker));
       }
-      case RET:
-        break;
-      case RETI:
-        break;
-      case PUSH: {
-        addCurrentValues(instruction, pc, currentHeight);
-        int size = this.previousIn.size();
-        traverse(pc, currentHeight + 1);
-        removeInstructions(size);
-        
-        break;
+    }
+    // Collect the results in order of entry address
+    FunctionTrace[] traces = new FunctionTrace[size];
+    ArrayList<FunctionTrace> reached = new ArrayList<FunctionTrace>();
+    for (int pc = 0; pc < size; pc++) {
+      traces[pc] = results.get(pc);
+      if (traces[pc] != null) {
+        reached.add(traces[pc]);
       }
-      case POP: {
-        addCurrentValues(instruction, pc, currentHeight);
-        int size = this.previousIn.size();
-        traverse(pc, currentHeight - 1);
-        removeInstructions(size);
-        break;
+    }
+    this.callGraph = tracker.isExhausted() ? null : toCallGraph(reached);
+    return traces;
+  }
+
+  /**
+   * Traverse again every function which makes a tail call into a later
+   * function within its own strongly connected component of the call graph,
+   * this time following control into the later function rather than treating
+   * it as a tail call (see FunctionTraversal). A tail call between functions
+   * which call each other would otherwise make every function around the cycle
+   * recursive, rather than only those which are re-entered through a call. The
+   * remaining traces are reused, and the call graph is constructed again.
+   *
+   * @param traces  = the local results of traversing each function, indexed by
+   *                entry address.
+   * @param roots   = entry addresses of the first functions.
+   * @param tracker = tracks the work performed against the budget.
+   * @return traces = the local results of traversing each function, indexed by
+   *         entry address.
+   */
+  private FunctionTrace[] inlineCycles(FunctionTrace[] traces, int[] roots,
+      BudgetTracker tracker) {
+    IntQueue found = new IntQueue();
+    for (int c = 0; c < this.callGraph.getComponentCount(); c++) {
+      int[] members = this.callGraph.getMembers(c);
+      if (!this.callGraph.isRecursive(members[0])) {
+        continue;
       }
-      default: {
-        // Indicates a standard instruction where control is transferred to the
-        addCurrentValues(instruction, pc, currentHeight);
-        int size = this.previousIn.size();
-        traverse(pc, currentHeight);
-        removeInstructions(size);
+      for (int entry : members) {
+        FunctionTrace trace = traces[entry];
+        for (int i = 0; i < trace.callTargets.length; i++) {
+          int target = trace.callTargets[i];
+          // A later function is entered at its own address
+          if (trace.tailCalls[i] && trace.callSites[i] == target
+              && this.callGraph.getComponent(target) == c) {
+            found.add(entry);
+            break;
+          }
+        }
       }
     }
+    if (found.isEmpty()) {
+      return traces;
+    }
+    FunctionTrace[] kept = traces.clone();
+    this.inlined = new int[found.size()];
+    for (int i = 0; i < this.inlined.length; i++) {
+      this.inlined[i] = found.poll();
+      kept[this.inlined[i]] = null;
+    }
+    Arrays.sort(this.inlined);
+    this.traversal.setInlined(this.inlined);
+    this.reusable = kept;
+    try {
+      return discover(roots, tracker);
+    } finally {
+      this.reusable = null;
+    }
   }
 
   /**
-   * Add the current values to the respective lists to keep track of them
-   * when moving down a branch. 
-   * @param instruction   Instruction to process
-   * @param pc            Program counter of following instruction
-   * @param currentHeight Current height of the stack at this point (in bytes)
+   * Construct the call graph from the local results of traversing each
+   * function.
+   *
+   * @param traces = the local results of traversing each function.
+   * @return callGraph = call graph.
    */
-  public void addCurrentValues(AvrInstruction instruction, int pc, int currentHeight) {
-    this.previousIn.add(instruction);
-    this.previousStackHeight.add(Integer.valueOf(currentHeight));
-    this.previousPC.add(Integer.valueOf(pc));
+  private static CallGraph toCallGraph(ArrayList<FunctionTrace> traces) {
+    int[] nodes = new int[traces.size()];
+    int[][] edges = new int[traces.size()][];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = traces.get(i).entry;
+      edges[i] = traces.get(i).callees;
+    }
+    return new CallGraph(nodes, edges);
   }
-  
+
   /**
-   * Remove the instructions that had been added when moving down a branch.
-   * @param size = the point to stop removing instructions
+   * Get the previous trace of a function, if it remains valid for the current
+   * image.
+   *
+   * @param entry = entry address of the function.
+   * @return trace = previous trace, or null if the function must be traversed.
    */
-  public void removeInstructions(int size) {
-    for (int i = this.previousIn.size() - 1; i > size; i--) {
-      this.previousIn.remove(i);
-      this.previousStackHeight.remove(i);
-      this.previousPC.remove(i);
-    }
+  private FunctionTrace reuse(int entry) {
+    return this.reusable == null ? null : this.reusable[entry];
   }
-  
+
   /**
-   * Check if we have already visited this instruction.
-   * If the current height is the same, then it is a stable 
-   * If the current height is different, then it is unstable. 
-   * @param instruction           Current Instruction
-   * @param currentHeight Current height of the stack at this point (in bytes)
-   * @param pc = Current program counter. 
-   * @return = true for seen before, false for not. 
+   * Determine which traces of the previous image remain valid for the current
+   * one. A trace remains valid if every word occupied by the instructions it
+   * reached is unchanged, and every call target remains on the same side of the
+   * end of the image. Likewise, every successor which was outside the previous
+   * image (e.g. a jump past its end, or falling off it) must remain outside the
+   * current one, since otherwise the function continues into code it did not
+   * reach before. Traces which reached an indirect call or jump are
+   * never reused, since the resolution of its target depends on code outside
+   * the function. Likewise, whether control reaching a word enters another
+   * function depends on whether it is called from elsewhere, so this must be
+   * unchanged for every word reached and every function entered. Traces of
+   * functions which were traversed without tail calls are not reused either,
+   * since inlineCycles() decides this afresh.
+   *
+   * @param previous = raw bytes of the previous image.
+   * @param decoded  = pre-decoded instructions of the previous image.
+   * @return reusable = valid traces indexed by entry address.
    */
-  public boolean previouslyVisited(AvrInstruction instruction, int currentHeight, int pc) {
-    //If the maxHeight is MAX_VALUE, then it must have already been seen
-    if (this.maxHeight == Integer.MAX_VALUE) {
-      return true;
+  private FunctionTrace[] unchanged(FlashMemory previous, InstructionTable decoded) {
+    FunctionTrace[] result = new FunctionTrace[this.words];
+    for (FunctionTrace trace : this.traces) {
+      if (trace == null || !inImage(trace.entry)) {
+        continue;
+      }
+      boolean valid = true;
+      for (int i = 0; valid && i < trace.footprint.length; i++) {
+        int pc = trace.footprint[i];
+        ControlFlow flow = pc < decoded.size() ? decoded.getFlow(pc) : ControlFlow.NEXT;
+        valid = flow != ControlFlow.INDIRECT_CALL && flow != ControlFlow.INDIRECT_JUMP
+            && sameWord(previous, pc) && decoded.isCalled(pc) == this.table.isCalled(pc);
+      }
+      for (int i = 0; valid && i < trace.callTargets.length; i++) {
+        // A target which has moved into or out of the image changes the callees
+        int target = trace.callTargets[i];
+        valid = (target >= 0 && target < decoded.size()) == inImage(target)
+            && (!trace.tailCalls[i] || this.table.isCalled(target));
+      }
+      for (int i = 0; valid && i < trace.exits.length; i++) {
+        valid = !inImage(trace.exits[i]);
+      }
+      if (valid) {
+        result[trace.entry] = trace;
+      }
+    }
+    for (int entry : this.inlined) {
+      if (entry < result.length) {
+        result[entry] = null;
+      }
     }
-    for (int i = 0; i < this.previousIn.size(); i++) {
-      AvrInstruction previous = this.previousIn.get(i);
-      int previouspc = this.previousPC.get(i).intValue();
-      if (previous.toString().equals(instruction.toString()) && pc == previouspc) {
-        int previousHeight = this.previousStackHeight.get(i).intValue();
-        //If the currentHeight is the same, in it is stable. 
-        if (previousHeight == currentHeight) {
-          return true;
+    return result;
+  }
+
+  /**
+   * Check whether the word at a given address is the same in the current image
+   * as in a previous one. Bytes beyond the end of an image are treated as
+   * absent.
+   *
+   * @param previous = raw bytes of the previous image.
+   * @param pc       = word address.
+   * @return true if unchanged, false otherwise.
+   */
+  private boolean sameWord(FlashMemory previous, int pc) {
+    int address = pc * 2;
+    int before = Math.min(Math.max(previous.size() - address, 0), 2);
+    int after = Math.min(Math.max(this.firmware.size() - address, 0), 2);
+    return before == after && previous.readWord(pc) == this.firmware.readWord(pc);
+  }
+
+  /**
+   * Summarise every function in the call graph, given the local results of
+   * traversing them. The strongly connected components of the call graph are
+   * processed in reverse topological order, so that callees are summarised
+   * before their callers. Every function in a recursive component has an
+   * unbounded stack, since each trip around the cycle pushes another return
+   * address. The depth of nested calls below each function is computed along
+   * the way, and checked against the budget.
+   *
+   * <p>
+   * When previous summaries are given, a component whose traces were all
+   * reused, and whose callees outside the component are all up to date, keeps
+   * its previous summaries. Hence, only the summaries of functions which
+   * changed and of their transitive callers are recomputed.
+   * </p>
+   *
+   * @param traces   = the local results of traversing each function, indexed
+   *                 by entry address.
+   * @param previous = summaries of the previous image, or null.
+   * @param reusable = traces reused from the previous image, or null.
+   * @param tracker  = tracks the work performed against the budget.
+   */
+  private void summarise(FunctionTrace[] traces, FunctionSummary[] previous,
+      FunctionTrace[] reusable, BudgetTracker tracker) {
+    int[] depths = new int[this.words];
+    LongBitList stale = new LongBitList(this.words);
+    for (int c = 0; c < this.callGraph.getComponentCount(); c++) {
+      int[] members = this.callGraph.getMembers(c);
+      boolean recompute = previous == null;
+      for (int i = 0; !recompute && i < members.length; i++) {
+        int entry = members[i];
+        recompute = traces[entry] != reusable[entry] || entry >= previous.length
+            || previous[entry] == null;
+        for (int callee : traces[entry].callees) {
+          recompute |= stale.get(callee);
+        }
+      }
+      for (int entry : members) {
+        stale.set(entry, recompute);
+        if (recompute) {
+          boolean recursive = this.callGraph.isRecursive(entry);
+          this.summaries[entry] = traces[entry].toSummary(recursive, this.summaries);
+        } else {
+          this.summaries[entry] = previous[entry];
         }
-        RelativeAddress branch = (RelativeAddress) instruction;
-        AvrInstruction instruction2 = decodeInstructionAt(pc + branch.k);
-        int next = pc + branch.k + instruction2.getWidth();
-        //If the currentHeight is not the same, then it is unstable. 
-        if (previousHeight != currentHeight && next < pc) {
-          this.maxHeight = Integer.MAX_VALUE;
+        for (int callee : traces[entry].callees) {
+          depths[entry] = Math.max(depths[entry], depths[callee] + 1);
         }
+        if (!tracker.checkCallDepth(depths[entry])) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the entry address of the handler for each interrupt vector, other than
+   * reset. A vector normally jumps to its handler (possibly through further
+   * jumps), but otherwise the handler is taken to begin at the vector itself.
+   * Vectors which lead back to reset (as avr-gcc's __bad_interrupt does for
+   * unused vectors) are ignored, since they restart the program. Vectors are
+   * one word wide, unless the reset vector is a JMP, in which case they are two
+   * words wide.
+   *
+   * @return handlers = distinct entry addresses in ascending order.
+   */
+  private int[] findHandlers() {
+    int width = this.table.getOpcode(0) == Opcode.JMP ? 2 : 1;
+    LongBitList found = new LongBitList(this.words);
+    int count = 0;
+    for (int v = 1; v < this.vectors && inImage(v * width); v++) {
+      int handler = v * width;
+      // Follow any chain of jumps (e.g. through __bad_interrupt) to the handler
+      for (int hops = 0; hops < this.vectors && handler != 0 && inImage(handler)
+          && this.table.getFlow(handler) == ControlFlow.JUMP; hops++) {
+        handler = this.table.getTarget(handler);
+      }
+      if (handler != 0 && inImage(handler) && found.add(handler)) {
+        count++;
       }
     }
-    return false;
+    int[] entries = new int[count];
+    for (int pc = found.nextSetBit(0), i = 0; i < count; pc = found.nextSetBit(pc + 1)) {
+      entries[i++] = pc;
+    }
+    return entries;
   }
-  
 
-  
+  /**
+   * Determine the maximum stack height which interrupt handlers can add on top
+   * of the main program. Each interrupt pushes a two byte return address before
+   * entering its handler. A handler which enables interrupts (by SEI) can
+   * itself be interrupted, so every such handler may be on the stack at once,
+   * with any other handler innermost. This assumes no handler interrupts
+   * itself.
+   *
+   * @return interruptHeight = height of stack, or Integer.MAX_VALUE if
+   *         unbounded.
+   */
+  private int toInterruptHeight() {
+    int nested = 0;
+    int innermost = 0;
+    for (int handler : this.handlers) {
+      FunctionSummary summary = this.summaries[handler];
+      int height = FunctionTrace.add(summary.getMaxHeight(), 2);
+      if (summary.enablesInterrupts()) {
+        nested = FunctionTrace.add(nested, height);
+      } else {
+        innermost = Math.max(innermost, height);
+      }
+    }
+    return FunctionTrace.add(nested, innermost);
+  }
+
+  /**
+   * Check whether a given program counter lies within the firmware image.
+   *
+   * @param pc = program counter.
+   * @return true if within the image, false otherwise.
+   */
+  private boolean inImage(int pc) {
+    return pc >= 0 && pc < this.words;
+  }
 
   /**
-   * Decode the instruction at a given PC location.
+   * Traverses a single function, and then forks a task for each function it
+   * calls which has not already been claimed by another task. A task completes
+   * once every task it forked has completed.
+   *
+   * @author Caitlin
    *
-   * @param pc = program counter. 
-   * @return AvrInstruction = set of instructions
    */
-  private AvrInstruction decodeInstructionAt(int pc) {
-    return this.decoder.decode(this.firmware, pc);
+  private final class TraceTask extends CountedCompleter<Void> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The entry address of the function to traverse.
+     */
+    private final int entry;
+
+    /**
+     * The local results of each function traversed, indexed by entry address.
+     */
+    private final AtomicReferenceArray<FunctionTrace> results;
+
+    /**
+     * Records which functions have been claimed by a task.
+     */
+    private final AtomicIntegerArray claimed;
+
+    /**
+     * Scratch state which is not currently in use by any task.
+     */
+    private final ConcurrentLinkedQueue<FunctionTraversal> scratch;
+
+    /**
+     * Tracks the work performed against the budget.
+     */
+    private final BudgetTracker tracker;
+
+    /**
+     * Constructor for Trace Task class.
+     *
+     * @param parent  = task which forked this task, or null.
+     * @param entry   = entry address of the function to traverse.
+     * @param results = local results of each function traversed.
+     * @param claimed = records which functions have been claimed.
+     * @param scratch = scratch state not currently in use.
+     * @param tracker = tracks the work performed against the budget.
+     */
+    private TraceTask(TraceTask parent, int entry, AtomicReferenceArray<FunctionTrace> results,
+        AtomicIntegerArray claimed, ConcurrentLinkedQueue<FunctionTraversal> scratch,
+        BudgetTracker tracker) {
+      super(parent);
+      this.entry = entry;
+      this.results = results;
+      this.claimed = claimed;
+      this.scratch = scratch;
+      this.tracker = tracker;
+    }
+
+    @Override
+    public void compute() {
+      if (this.tracker.isExhausted()) {
+        // Nothing more to learn, since the results will be discarded.
+        tryComplete();
+        return;
+      }
+      FunctionTrace trace = reuse(this.entry);
+      if (trace == null) {
+        FunctionTraversal traversal = this.scratch.poll();
+        if (traversal == null) {
+          traversal = new FunctionTraversal(table);
+        }
+        trace = traversal.traverseFunction(this.entry, this.tracker);
+        this.scratch.add(traversal);
+      }
+      this.results.set(this.entry, trace);
+      // Fork tasks for any callees not yet claimed
+      for (int callee : trace.callees) {
+        if (this.claimed.compareAndSet(callee, 0, 1)) {
+          addToPendingCount(1);
+          new TraceTask(this, callee, this.results, this.claimed, this.scratch, this.tracker)
+              .fork();
+        }
+      }
+      tryComplete();
+    }
   }
 }
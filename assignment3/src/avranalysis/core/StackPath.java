@@ -0,0 +1,177 @@
+package avranalysis.core;
+
+/**
+ * A concrete path through a firmware image which produces its worst-case stack
+ * height. The path is given by the contents of the stack at the point where
+ * that height is reached, from the bottom up: each step is an instruction
+ * which pushed bytes that are still on the stack. Steps are either push points
+ * (PUSH instructions, or allocations of a stack frame), call sites (whose
+ * return address is on the stack), or interrupts (which push a return address
+ * before entering a handler). A function may also pop bytes which were on the
+ * stack before it was entered (e.g. discarding the return address of the call
+ * to it), and each instruction which does so is a further step, with a
+ * negative number of bytes. Hence, the bytes of every step add up to the
+ * height of the path, unless it is unbounded.
+ *
+ * @author Caitlin
+ *
+ */
+public final class StackPath {
+  /**
+   * The kind of instruction at each step of a path.
+   *
+   * @author Caitlin
+   *
+   */
+  public enum Kind {
+    /**
+     * An instruction which pushes bytes, or allocates a stack frame.
+     */
+    PUSH,
+    /**
+     * An instruction which pops bytes that were on the stack before its
+     * function was entered.
+     */
+    POP,
+    /**
+     * A call site, which pushes its return address (or a tail call, which
+     * pushes nothing).
+     */
+    CALL,
+    /**
+     * An interrupt, which pushes a return address before entering the handler
+     * at the given address.
+     */
+    INTERRUPT
+  }
+
+  /**
+   * The address of the instruction (or handler) at each step.
+   */
+  private final int[] addresses;
+
+  /**
+   * The number of bytes pushed by each step, which is negative for a step
+   * which pops.
+   */
+  private final int[] bytes;
+
+  /**
+   * The kind of each step.
+   */
+  private final Kind[] kinds;
+
+  /**
+   * The address at which the stack was found to grow without bound, or -1.
+   */
+  private final int unboundedAt;
+
+  /**
+   * Constructor for Stack Path class.
+   *
+   * @param addresses   = address of the instruction at each step.
+   * @param bytes       = number of bytes pushed (or popped) by each step.
+   * @param kinds       = kind of each step.
+   * @param unboundedAt = address at which the stack grows without bound, or
+   *                    -1 if it is bounded.
+   */
+  StackPath(int[] addresses, int[] bytes, Kind[] kinds, int unboundedAt) {
+    this.addresses = addresses;
+    this.bytes = bytes;
+    this.kinds = kinds;
+    this.unboundedAt = unboundedAt;
+  }
+
+  /**
+   * Get the number of steps in the path.
+   *
+   * @return size = number of steps.
+   */
+  public int size() {
+    return this.addresses.length;
+  }
+
+  /**
+   * Get the word address of the instruction at a given step. For an interrupt,
+   * this is the entry address of its handler.
+   *
+   * @param i = index of the step.
+   * @return address = word address.
+   */
+  public int getAddress(int i) {
+    return this.addresses[i];
+  }
+
+  /**
+   * Get the number of bytes pushed by a given step, which remain on the stack
+   * at the end of the path. For a step which pops, this is the (negative)
+   * number of bytes removed.
+   *
+   * @param i = index of the step.
+   * @return bytes = number of bytes, or minus the number popped.
+   */
+  public int getBytes(int i) {
+    return this.bytes[i];
+  }
+
+  /**
+   * Get the kind of a given step.
+   *
+   * @param i = index of the step.
+   * @return kind = kind of step.
+   */
+  public Kind getKind(int i) {
+    return this.kinds[i];
+  }
+
+  /**
+   * Check whether the path ends where the stack grows without bound (around a
+   * loop, or through recursion).
+   *
+   * @return true if unbounded, false otherwise.
+   */
+  public boolean isUnbounded() {
+    return this.unboundedAt >= 0;
+  }
+
+  /**
+   * Get the address of the instruction at which the stack was found to grow
+   * without bound. This is either the head of a loop which grows the stack on
+   * every trip around it, the instruction which makes a stack frame unbounded,
+   * or a call site which re-enters a function already on the path.
+   *
+   * @return address = word address, or -1 if the path is bounded.
+   */
+  public int getUnboundedAt() {
+    return this.unboundedAt;
+  }
+
+  /**
+   * Get the stack height at the end of the path.
+   *
+   * @return height = height of stack, or Integer.MAX_VALUE if unbounded.
+   */
+  public int getHeight() {
+    if (isUnbounded()) {
+      return Integer.MAX_VALUE;
+    }
+    int height = 0;
+    for (int b : this.bytes) {
+      height += b;
+    }
+    return height;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < this.addresses.length; i++) {
+      sb.append(String.format("%04X\t%s\t%+d%n", this.addresses[i],
+          this.kinds[i].toString().toLowerCase(), this.bytes[i]));
+    }
+    if (isUnbounded()) {
+      sb.append(String.format("%04X\tunbounded%n", this.unboundedAt));
+    }
+    return sb.toString();
+  }
+}
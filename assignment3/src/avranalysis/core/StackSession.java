@@ -0,0 +1,88 @@
+package avranalysis.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A lightweight session for querying a shared firmware image (see Firmware).
+ * The image and the results of analysing it belong to the firmware, whilst the
+ * session holds only the scratch state needed to traverse functions again when
+ * tracing a path, which is allocated when first needed and then reused.
+ * Hence, any number of sessions can query the same image concurrently, but
+ * each session must only be used by one thread at a time.
+ *
+ * @author Caitlin
+ *
+ */
+public final class StackSession {
+  /**
+   * The firmware image being queried.
+   */
+  private final Firmware firmware;
+
+  /**
+   * Traverses functions of the image, or null if it has not yet been needed.
+   */
+  private FunctionTraversal traversal;
+
+  /**
+   * Constructor for Stack Session class.
+   *
+   * @param firmware = firmware image to query.
+   */
+  StackSession(Firmware firmware) {
+    this.firmware = firmware;
+  }
+
+  /**
+   * Get the firmware image queried by this session.
+   *
+   * @return firmware = firmware image.
+   */
+  public Firmware getFirmware() {
+    return this.firmware;
+  }
+
+  /**
+   * Reconstruct a concrete path which produces the worst-case stack height of
+   * the image (see StackAnalysis.getWorstCasePath()).
+   *
+   * @return path = worst-case path.
+   */
+  public StackPath getWorstCasePath() {
+    if (this.traversal == null) {
+      this.traversal = new FunctionTraversal(this.firmware.getTable());
+      this.traversal.setInlined(this.firmware.getInlined());
+    }
+    return new PathTracer(this.firmware.getTable(), this.firmware.getSummaries(),
+        this.firmware.getHandlers(), this.traversal).trace();
+  }
+
+  /**
+   * Write the disassembly of every instruction reached, annotated with the
+   * interval of stack heights on entry to it (see
+   * StackAnalysis.annotate(Writer)). The writer is flushed, but not closed.
+   *
+   * @param out = destination of the annotation.
+   * @throws IOException if the annotation cannot be written.
+   */
+  public void annotate(Writer out) throws IOException {
+    new HeightAnnotator(this.firmware.getTable(), this.firmware.getCallGraph(),
+        this.firmware.getHandlers(), this.firmware.getInlined()).write(out);
+  }
+
+  /**
+   * Write the annotated disassembly of every instruction reached, as ASCII
+   * text. The stream is flushed, but not closed.
+   *
+   * @param out = destination of the annotation.
+   * @throws IOException if the annotation cannot be written.
+   */
+  public void annotate(OutputStream out) throws IOException {
+    annotate(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII)));
+  }
+}
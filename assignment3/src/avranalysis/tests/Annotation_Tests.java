@@ -0,0 +1,133 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+import avranalysis.util.HexLoader;
+import javr.core.AvrInstruction;
+import javr.io.HexFile;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Annotation_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	@Test
+	public void test_01() throws IOException {
+		// Heights within a called function include the caller's
+		HexFile hf = FirmwareGenerator.assemble(
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.RCALL(2),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.RET());
+		String[] lines = annotate(hf);
+		assertEquals(9,lines.length);
+		assertEquals("; function 0000",lines[0]);
+		assertInterval("0000","[0,0]",lines[1]);
+		assertInterval("0001","[1,1]",lines[2]);
+		assertInterval("0002","[1,1]",lines[3]);
+		assertInterval("0003","[0,0]",lines[4]);
+		assertEquals("; function 0004",lines[5]);
+		assertInterval("0004","[3,3]",lines[6]);
+		assertInterval("0005","[4,4]",lines[7]);
+		assertInterval("0006","[3,3]",lines[8]);
+	}
+
+	@Test
+	public void test_02() throws IOException {
+		// Paths of different heights are joined, as are different call sites
+		HexFile hf = FirmwareGenerator.assemble(
+				new AvrInstruction.RCALL(5),
+				new AvrInstruction.BREQ(1),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.RCALL(2),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.RET());
+		String[] lines = annotate(hf);
+		assertInterval("0003","[0,1]",lines[4]);
+		assertInterval("0004","[0,1]",lines[5]);
+		// The unreached word is skipped
+		assertEquals(" ... ",lines[6]);
+		assertEquals("; function 0006",lines[7]);
+		assertInterval("0006","[2,3]",lines[8]);
+	}
+
+	@Test
+	public void test_03() throws IOException {
+		// The greatest height annotated is that of the main program
+		StackAnalysis analysis = new StackAnalysis(HexLoader.load(new File(TESTS_DIR + "fader.hex")));
+		assertEquals(12,analysis.apply());
+		int max = 0;
+		for (String line : annotate(analysis)) {
+			if (!line.startsWith(";") && !line.equals(" ... ")) {
+				String interval = line.split("\t")[1];
+				max = Math.max(max,Integer.parseInt(interval.substring(interval.indexOf(',') + 1,interval.length() - 1)));
+			}
+		}
+		assertEquals(analysis.getMainHeight(),max);
+	}
+
+	@Test
+	public void test_04() throws IOException {
+		// Writing to a stream gives the same text
+		HexFile hf = FirmwareGenerator.assemble(
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.RJMP(-1));
+		StackAnalysis analysis = new StackAnalysis(hf);
+		analysis.apply();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		analysis.annotate(bytes);
+		StringWriter writer = new StringWriter();
+		analysis.annotate(writer);
+		assertEquals(writer.toString(),bytes.toString("US-ASCII"));
+		assertTrue(writer.toString().startsWith("; function 0000\n0000\t[0,0]\t"));
+	}
+
+	@Test
+	public void test_05() throws IOException {
+		// There is nothing to annotate before the analysis is applied
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(new AvrInstruction.RJMP(-1)));
+		try {
+			analysis.annotate(new StringWriter());
+			fail("expected no call graph");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	private static String[] annotate(HexFile hf) throws IOException {
+		StackAnalysis analysis = new StackAnalysis(hf);
+		analysis.apply();
+		return annotate(analysis);
+	}
+
+	private static String[] annotate(StackAnalysis analysis) throws IOException {
+		StringWriter writer = new StringWriter();
+		analysis.annotate(writer);
+		return writer.toString().split("\n");
+	}
+
+	private static void assertInterval(String address, String interval, String line) {
+		String[] fields = line.split("\t");
+		assertEquals(address,fields[0]);
+		assertEquals(interval,fields[1]);
+	}
+}
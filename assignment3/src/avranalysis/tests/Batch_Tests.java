@@ -0,0 +1,122 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.BatchAnalysis;
+import javr.io.HexFile;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Batch_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	@Test
+	public void test_01() throws InterruptedException {
+		List<File> files = BatchAnalysis.collect(Arrays.asList(new File(TESTS_DIR)));
+		HashMap<String, Integer> heights = runBatch(files, 4);
+		// Check computation
+		assertEquals(13, heights.size());
+		assertEquals(Integer.valueOf(12), heights.get("fader.hex"));
+		assertEquals(Integer.valueOf(10), heights.get("blocks_4.hex"));
+		assertEquals(Integer.valueOf(12), heights.get("blocker_2.hex"));
+		assertEquals(Integer.valueOf(33), heights.get("numbers_1.hex"));
+		assertEquals(Integer.valueOf(59), heights.get("snake.hex"));
+		assertEquals(Integer.valueOf(35), heights.get("tetris.hex"));
+	}
+
+	@Test
+	public void test_02() throws InterruptedException {
+		List<File> files = Arrays.asList(new File(TESTS_DIR + "fader.hex"), new File(TESTS_DIR + "missing.hex"));
+		final ArrayList<BatchAnalysis.Result> results = new ArrayList<BatchAnalysis.Result>();
+		new BatchAnalysis(1).run(files, new BatchAnalysis.Listener() {
+			@Override
+			public void finished(BatchAnalysis.Result result) {
+				results.add(result);
+			}
+		});
+		// Check both results reported, with the missing file as an error.
+		assertEquals(2, results.size());
+		for(BatchAnalysis.Result result : results) {
+			if(result.getFile().getName().equals("fader.hex")) {
+				assertNull(result.getError());
+				assertEquals(12, result.getMaxHeight());
+			} else {
+				assertNotNull(result.getError());
+			}
+		}
+	}
+
+	@Test
+	public void test_03() throws InterruptedException, IOException {
+		// An image whose last byte is at 0x7FFFFFFE is rejected by the loader,
+		// rather than allocated. This should be reported against the image
+		// without aborting the batch.
+		File file = File.createTempFile("huge", ".hex");
+		try {
+			FileWriter writer = new FileWriter(file);
+			try {
+				writer.write(":020000047FFF7C\n:0FFFF00000000000000000000000000000000002\n");
+			} finally {
+				writer.close();
+			}
+			List<File> files = Arrays.asList(file, new File(TESTS_DIR + "fader.hex"));
+			final ArrayList<BatchAnalysis.Result> results = new ArrayList<BatchAnalysis.Result>();
+			new BatchAnalysis(1).run(files, new BatchAnalysis.Listener() {
+				@Override
+				public void finished(BatchAnalysis.Result result) {
+					results.add(result);
+				}
+			});
+			assertEquals(2, results.size());
+			for(BatchAnalysis.Result result : results) {
+				if(result.getFile().equals(file)) {
+					assertTrue(result.getError() instanceof HexFile.InvalidHexLine);
+					assertEquals(Integer.MAX_VALUE, result.getMaxHeight());
+				} else {
+					assertNull(result.getError());
+					assertEquals(12, result.getMaxHeight());
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Analyse a given list of firmware images, returning the height computed for
+	 * each by file name.
+	 *
+	 * @param files
+	 * @param threads
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private HashMap<String, Integer> runBatch(List<File> files, int threads) throws InterruptedException {
+		final HashMap<String, Integer> heights = new HashMap<String, Integer>();
+		new BatchAnalysis(threads).run(files, new BatchAnalysis.Listener() {
+			@Override
+			public void finished(BatchAnalysis.Result result) {
+				assertNull(result.getError());
+				heights.put(result.getFile().getName(), Integer.valueOf(result.getMaxHeight()));
+			}
+		});
+		return heights;
+	}
+}
@@ -0,0 +1,51 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.util.LongBitList;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class BitList_Tests {
+	@Test
+	public void test_01() {
+		// Bits either side of a word boundary are independent
+		LongBitList bits = new LongBitList(130);
+		bits.set(63,true);
+		bits.set(64,true);
+		bits.set(129,true);
+		bits.set(64,false);
+		assertTrue(bits.get(63));
+		assertFalse(bits.get(64));
+		assertTrue(bits.get(129));
+		assertEquals(130,bits.size());
+	}
+
+	@Test
+	public void test_02() {
+		// Adding reports whether the bit was clear beforehand
+		LongBitList bits = new LongBitList(100);
+		assertTrue(bits.add(70));
+		assertFalse(bits.add(70));
+		bits.clear();
+		assertTrue(bits.add(70));
+	}
+
+	@Test
+	public void test_03() {
+		// The next set bit is found across words
+		LongBitList bits = new LongBitList(200);
+		bits.set(5,true);
+		bits.set(150,true);
+		assertEquals(5,bits.nextSetBit(0));
+		assertEquals(5,bits.nextSetBit(5));
+		assertEquals(150,bits.nextSetBit(6));
+		assertEquals(-1,bits.nextSetBit(151));
+		assertEquals(-1,bits.nextSetBit(200));
+	}
+}
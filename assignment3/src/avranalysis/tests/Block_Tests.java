@@ -0,0 +1,54 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+import javr.core.AvrInstruction;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Block_Tests {
+	@Test
+	public void test_01() {
+		// A branch into the middle of a run of pushes splits the run
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.BREQ(2),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.PUSH(2),
+				new AvrInstruction.POP(2),
+				new AvrInstruction.RJMP(-1)));
+		assertEquals(3,analysis.apply());
+	}
+
+	@Test
+	public void test_02() {
+		// A block which pushes around a loop is unbounded
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.NOP(),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.RJMP(-4)));
+		assertEquals(Integer.MAX_VALUE,analysis.apply());
+	}
+
+	@Test
+	public void test_03() {
+		// A handler which begins part way through a block
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.NOP(),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RJMP(-1)));
+		analysis.setInterruptVectors(2);
+		assertEquals(2 + 2 + 2,analysis.apply());
+		assertEquals(1,analysis.getInterruptHandlers()[0]);
+	}
+}
@@ -0,0 +1,84 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.AnalysisBudget;
+import avranalysis.core.BatchAnalysis;
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Budget_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	@Test
+	public void test_01() {
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.straightLine(4096));
+		analysis.setBudget(AnalysisBudget.UNLIMITED);
+		assertEquals(4096,analysis.apply());
+		assertNull(analysis.getExhausted());
+	}
+
+	@Test
+	public void test_02() {
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.straightLine(4096));
+		analysis.setBudget(new AnalysisBudget(100,Long.MAX_VALUE,Integer.MAX_VALUE));
+		assertEquals(Integer.MAX_VALUE,analysis.apply());
+		assertEquals(AnalysisBudget.Kind.STATES,analysis.getExhausted());
+		assertNull(analysis.getCallGraph());
+		assertNull(analysis.getSummary(0));
+	}
+
+	@Test
+	public void test_03() {
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.straightLine(4096));
+		analysis.setBudget(new AnalysisBudget(Long.MAX_VALUE,0,Integer.MAX_VALUE));
+		assertEquals(Integer.MAX_VALUE,analysis.apply());
+		assertEquals(AnalysisBudget.Kind.TIME,analysis.getExhausted());
+	}
+
+	@Test
+	public void test_04() {
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.callTree(10,1));
+		analysis.setBudget(new AnalysisBudget(Long.MAX_VALUE,Long.MAX_VALUE,5));
+		assertEquals(Integer.MAX_VALUE,analysis.apply());
+		assertEquals(AnalysisBudget.Kind.CALL_DEPTH,analysis.getExhausted());
+		// Lifting the budget gives the exact result again
+		analysis.setBudget(new AnalysisBudget(Long.MAX_VALUE,Long.MAX_VALUE,10));
+		assertEquals(2 * 10 + 1,analysis.apply());
+		assertNull(analysis.getExhausted());
+	}
+
+	@Test
+	public void test_05() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.callTree(8,2));
+			analysis.setBudget(new AnalysisBudget(50,Long.MAX_VALUE,Integer.MAX_VALUE));
+			assertEquals(Integer.MAX_VALUE,analysis.apply(pool));
+			assertEquals(AnalysisBudget.Kind.STATES,analysis.getExhausted());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void test_06() {
+		AnalysisBudget budget = new AnalysisBudget(10,Long.MAX_VALUE,Integer.MAX_VALUE);
+		BatchAnalysis.Result result = BatchAnalysis.analyse(new File(TESTS_DIR + "fader.hex"),budget);
+		assertNull(result.getError());
+		assertEquals(Integer.MAX_VALUE,result.getMaxHeight());
+		assertEquals(AnalysisBudget.Kind.STATES,result.getExhausted());
+	}
+}
@@ -0,0 +1,213 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.AnalysisBudget;
+import avranalysis.core.AnalysisCache;
+import avranalysis.core.BatchAnalysis;
+import avranalysis.core.StackAnalysis;
+import javr.io.HexFile;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Cache_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void test_01() throws IOException {
+		// The second analysis is answered from the cache
+		AnalysisCache cache = new AnalysisCache(folder.getRoot());
+		StackAnalysis first = new StackAnalysis(read("snake.hex"));
+		first.setCache(cache);
+		assertEquals(59,first.apply());
+		assertEquals(1,entries());
+		StackAnalysis second = new StackAnalysis(read("snake.hex"));
+		second.setCache(cache);
+		assertEquals(59,second.apply());
+		assertEquals(0,second.getTraversedCount());
+		assertEquals(first.getCallGraph().toString(),second.getCallGraph().toString());
+		for (int entry : first.getCallGraph().getNodes()) {
+			assertEquals(first.getSummary(entry).toString(),second.getSummary(entry).toString());
+		}
+	}
+
+	@Test
+	public void test_02() throws IOException {
+		// The number of interrupt vectors is part of the key
+		AnalysisCache cache = new AnalysisCache(folder.getRoot());
+		StackAnalysis analysis = new StackAnalysis(read("fader.hex"));
+		analysis.setCache(cache);
+		int height = analysis.apply();
+		analysis.setInterruptVectors(StackAnalysis.ATTINY85_VECTORS);
+		analysis.apply();
+		assertEquals(2,entries());
+		analysis.setInterruptVectors(0);
+		assertEquals(height,analysis.apply());
+		assertEquals(0,analysis.getTraversedCount());
+	}
+
+	@Test
+	public void test_03() throws IOException {
+		// Entries from other versions are evicted, and corrupt entries ignored
+		File stale = folder.newFile("stale.stack");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(stale));
+		out.writeInt(0x53544b43);
+		out.writeInt(AnalysisCache.VERSION + 1);
+		out.close();
+		AnalysisCache cache = new AnalysisCache(folder.getRoot());
+		assertFalse(stale.exists());
+		StackAnalysis analysis = new StackAnalysis(read("tetris.hex"));
+		analysis.setCache(cache);
+		analysis.apply();
+		File[] files = folder.getRoot().listFiles();
+		assertEquals(1,files.length);
+		FileOutputStream truncate = new FileOutputStream(files[0]);
+		truncate.write(new byte[] {0x53,0x54,0x4b,0x43,0,0,0,AnalysisCache.VERSION,1});
+		truncate.close();
+		assertEquals(35,analysis.apply());
+		assertEquals(35,analysis.apply());
+		assertEquals(0,analysis.getTraversedCount());
+	}
+
+	@Test
+	public void test_04() throws IOException {
+		// Results are not cached when the budget is exhausted
+		AnalysisCache cache = new AnalysisCache(folder.getRoot());
+		StackAnalysis analysis = new StackAnalysis(read("snake.hex"));
+		analysis.setCache(cache);
+		analysis.setBudget(new AnalysisBudget(10,Long.MAX_VALUE,Integer.MAX_VALUE));
+		assertEquals(Integer.MAX_VALUE,analysis.apply());
+		assertEquals(0,entries());
+	}
+
+	@Test
+	public void test_05() throws IOException {
+		AnalysisCache cache = new AnalysisCache(folder.getRoot());
+		File file = new File(TESTS_DIR + "numbers_1.hex");
+		assertEquals(33,BatchAnalysis.analyse(file,AnalysisBudget.UNLIMITED,cache).getMaxHeight());
+		BatchAnalysis.Result result = BatchAnalysis.analyse(file,AnalysisBudget.UNLIMITED,cache);
+		assertEquals(33,result.getMaxHeight());
+		assertNotNull(result.toString());
+	}
+
+	@Test
+	public void test_06() throws IOException {
+		// Entries inconsistent with the image are ignored, and the analysis
+		// falls back to a full run.
+		AnalysisCache cache = new AnalysisCache(folder.getRoot());
+		StackAnalysis analysis = new StackAnalysis(read("fader.hex"));
+		analysis.setCache(cache);
+		assertEquals(12,analysis.apply());
+		File entry = folder.getRoot().listFiles()[0];
+		int words = words(entry);
+		// A function beyond the end of the image
+		corrupt(entry,words,new int[] {0,words},new int[][] {{},{}});
+		assertEquals(12,analysis.apply());
+		assertTrue(analysis.getTraversedCount() > 0);
+		// A negative function address
+		corrupt(entry,words,new int[] {0,-1},new int[][] {{},{}});
+		assertEquals(12,analysis.apply());
+		assertTrue(analysis.getTraversedCount() > 0);
+		// A call to a function without a summary
+		corrupt(entry,words,new int[] {0},new int[][] {{0x10}});
+		assertEquals(12,analysis.apply());
+		assertTrue(analysis.getTraversedCount() > 0);
+		// No summary for reset
+		corrupt(entry,words,new int[] {0x10},new int[][] {{}});
+		assertEquals(12,analysis.apply());
+		assertTrue(analysis.getTraversedCount() > 0);
+		// The wrong number of words
+		corrupt(entry,words + 1,new int[] {0},new int[][] {{}});
+		assertEquals(12,analysis.apply());
+		assertTrue(analysis.getTraversedCount() > 0);
+		// The entry stored by the last full run is then used
+		assertEquals(12,analysis.apply());
+		assertEquals(0,analysis.getTraversedCount());
+	}
+
+	private int entries() {
+		return folder.getRoot().listFiles().length;
+	}
+
+	/**
+	 * Read the number of words recorded in a cache entry.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static int words(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(8);
+			return raf.readInt();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Overwrite a cache entry with one holding the given (zero height)
+	 * summaries, and no handlers.
+	 *
+	 * @param file
+	 * @param words
+	 * @param entries
+	 * @param callees
+	 * @throws IOException
+	 */
+	private static void corrupt(File file, int words, int[] entries, int[][] callees) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(0x53544b43);
+			out.writeInt(AnalysisCache.VERSION);
+			out.writeInt(words);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(entries.length);
+			for (int i = 0; i < entries.length; i++) {
+				out.writeInt(entries[i]);
+				out.writeInt(0);
+				out.writeByte(0);
+				out.writeInt(callees[i].length);
+				for (int callee : callees[i]) {
+					out.writeInt(callee);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static HexFile read(String filename) throws IOException {
+		FileReader reader = new FileReader(TESTS_DIR + filename);
+		try {
+			return new HexFile.Reader(reader).readAll();
+		} finally {
+			reader.close();
+		}
+	}
+}
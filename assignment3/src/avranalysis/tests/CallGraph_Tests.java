@@ -0,0 +1,164 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.CallGraph;
+import avranalysis.core.StackAnalysis;
+import javr.core.AvrInstruction;
+import javr.io.HexFile;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CallGraph_Tests {
+	@Test
+	public void test_01() {
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.CALL(0x0005), // 0x0000
+				new AvrInstruction.CALL(0x0009), // 0x0002
+				new AvrInstruction.RJMP(-1),     // 0x0004
+				new AvrInstruction.RCALL(1),     // 0x0005
+				new AvrInstruction.RET(),        // 0x0006
+				new AvrInstruction.RCALL(1),     // 0x0007
+				new AvrInstruction.RET(),        // 0x0008
+				new AvrInstruction.RET(),        // 0x0009
+		};
+		CallGraph graph = computeCallGraph(instructions);
+		// Check nodes and edges
+		assertArrayEquals(new int[] {0x0, 0x5, 0x7, 0x9}, graph.getNodes());
+		assertArrayEquals(new int[] {0x5, 0x9}, graph.getCallees(0x0));
+		assertArrayEquals(new int[] {0x7}, graph.getCallees(0x5));
+		assertArrayEquals(new int[] {0x0, 0x7}, graph.getCallers(0x9));
+		// Check components
+		assertEquals(4, graph.getComponentCount());
+		for(int entry : graph.getNodes()) {
+			assertFalse(graph.isRecursive(entry));
+		}
+		// Callees always come before their callers
+		assertTrue(graph.getComponent(0x9) < graph.getComponent(0x7));
+		assertTrue(graph.getComponent(0x7) < graph.getComponent(0x5));
+		assertTrue(graph.getComponent(0x5) < graph.getComponent(0x0));
+	}
+
+	@Test
+	public void test_02() {
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.RCALL(2),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.RCALL(-2), // recurse
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RET()
+		};
+		CallGraph graph = computeCallGraph(instructions);
+		assertArrayEquals(new int[] {0x0, 0x2, 0x3}, graph.getNodes());
+		assertTrue(graph.isRecursive(0x2));
+		assertFalse(graph.isRecursive(0x3));
+		assertFalse(graph.isRecursive(0x0));
+		assertArrayEquals(new int[] {0x2}, graph.getMembers(graph.getComponent(0x2)));
+	}
+
+	@Test
+	public void test_03() {
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.RCALL(2),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.RCALL(2), // mutually recurse
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RET(),
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.RCALL(2), // mutually recurse
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RET(),
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.RCALL(-10), // mutually recurse
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RET(),
+		};
+		CallGraph graph = computeCallGraph(instructions);
+		assertArrayEquals(new int[] {0x0, 0x2, 0x3, 0x6, 0xA}, graph.getNodes());
+		int component = graph.getComponent(0x2);
+		assertEquals(component, graph.getComponent(0x6));
+		assertEquals(component, graph.getComponent(0xA));
+		assertArrayEquals(new int[] {0x2, 0x6, 0xA}, sorted(graph.getMembers(component)));
+		assertTrue(graph.isRecursive(0x6));
+		assertFalse(graph.isRecursive(0x3));
+		assertFalse(graph.isRecursive(0x0));
+	}
+
+	@Test
+	public void test_04() {
+		// A long chain of nested calls must not overflow the Java stack.
+		AvrInstruction[] instructions = new AvrInstruction[20003];
+		instructions[0] = new AvrInstruction.RCALL(1);
+		instructions[1] = new AvrInstruction.RJMP(-1);
+		for(int i=2;i!=20002;i+=2) {
+			instructions[i] = new AvrInstruction.RCALL(1);
+			instructions[i+1] = new AvrInstruction.RET();
+		}
+		instructions[20002] = new AvrInstruction.RET();
+		CallGraph graph = computeCallGraph(instructions);
+		assertEquals(10002, graph.size());
+		assertEquals(10002, graph.getComponentCount());
+	}
+
+	/**
+	 * For a given sequence of instructions compute the call graph.
+	 *
+	 * @param instructions
+	 * @return
+	 */
+	private CallGraph computeCallGraph(AvrInstruction... instructions) {
+		// Assemble instructions into hexfile
+		HexFile hf = assemble(instructions);
+		// Compute stack usage
+		StackAnalysis analysis = new StackAnalysis(hf);
+		analysis.apply();
+		return analysis.getCallGraph();
+	}
+
+	/**
+	 * Sort a given array of entry addresses.
+	 *
+	 * @param entries
+	 * @return
+	 */
+	private int[] sorted(int[] entries) {
+		java.util.Arrays.sort(entries);
+		return entries;
+	}
+
+	/**
+	 * Responsible for turning a given sequence of instructions into a hexfile, so
+	 * that it can in turn be uploaded to the stack analysis.
+	 *
+	 * @param instructions
+	 * @return
+	 */
+	private HexFile assemble(AvrInstruction... instructions) {
+		byte[][] chunks = new byte[instructions.length][];
+		int total = 0;
+		// Encode each instruction into a byte sequence
+		for(int i=0;i!=instructions.length;++i) {
+			byte[] bytes = instructions[i].getBytes();
+			chunks[i] = bytes;
+			total = total + bytes.length;
+		}
+		// Flatten the chunks into a sequence
+		byte[] sequence = new byte[total];
+		//
+		for(int i=0,j=0;i!=chunks.length;++i) {
+			byte[] chunk = chunks[i];
+			System.arraycopy(chunk, 0, sequence, j, chunk.length);
+			j = j + chunk.length;
+		}
+		// Finally, create the hex file!
+		return HexFile.toHexFile(sequence,16);
+	}
+}
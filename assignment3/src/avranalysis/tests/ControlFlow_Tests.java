@@ -0,0 +1,121 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.ControlFlow;
+import avranalysis.core.InstructionTable;
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+import javr.core.AvrInstruction;
+import javr.io.HexFile;
+import javr.memory.ElasticByteMemory;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ControlFlow_Tests {
+	@Test
+	public void test_01() {
+		// Only the branch target pushes.
+		assertEquals(1,computeStackUsage(conditional(new AvrInstruction.BRNE(1))));
+	}
+
+	@Test
+	public void test_02() {
+		assertEquals(1,computeStackUsage(conditional(new AvrInstruction.BRLO(1))));
+	}
+
+	@Test
+	public void test_03() {
+		assertEquals(1,computeStackUsage(conditional(new AvrInstruction.BRSH(1))));
+	}
+
+	@Test
+	public void test_04() {
+		assertEquals(1,computeStackUsage(conditional(new AvrInstruction.BRBS(1,1))));
+	}
+
+	@Test
+	public void test_05() {
+		assertEquals(1,computeStackUsage(conditional(new AvrInstruction.BRBC(1,1))));
+	}
+
+	@Test
+	public void test_06() {
+		// Only the instruction after the skipped one pushes.
+		assertEquals(1,computeStackUsage(conditional(new AvrInstruction.CPSE(16,17))));
+	}
+
+	@Test
+	public void test_07() {
+		assertEquals(1,computeStackUsage(conditional(new AvrInstruction.SBRC(16,0))));
+	}
+
+	@Test
+	public void test_08() {
+		assertEquals(1,computeStackUsage(conditional(new AvrInstruction.SBIC(5,0))));
+	}
+
+	@Test
+	public void test_09() {
+		assertEquals(1,computeStackUsage(conditional(new AvrInstruction.SBIS(5,0))));
+	}
+
+	@Test
+	public void test_10() {
+		// Skipping over a two-word instruction
+		HexFile hf = FirmwareGenerator.assemble(
+				new AvrInstruction.SBRS(16,0),
+				new AvrInstruction.JMP(0),
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.RJMP(-1));
+		InstructionTable table = new InstructionTable(upload(hf));
+		assertEquals(ControlFlow.SKIP,table.getFlow(0));
+		assertEquals(3,table.getTarget(0));
+		assertEquals(1,new StackAnalysis(hf).apply());
+	}
+
+	@Test
+	public void test_11() {
+		// Skipping over a two-word instruction at the end of the image
+		HexFile hf = FirmwareGenerator.assemble(
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.SBRC(16,0),
+				new AvrInstruction.CALL(0));
+		InstructionTable table = new InstructionTable(upload(hf));
+		assertEquals(4,table.getTarget(1));
+	}
+
+	/**
+	 * Construct a sequence where a given branch or skip instruction either loops
+	 * forever at the next instruction, or passes over it to reach a push.
+	 *
+	 * @param conditional
+	 * @return
+	 */
+	private static AvrInstruction[] conditional(AvrInstruction conditional) {
+		return new AvrInstruction[] {
+				conditional,
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.RJMP(-1) };
+	}
+
+	private static ElasticByteMemory upload(HexFile hf) {
+		ElasticByteMemory firmware = new ElasticByteMemory();
+		hf.uploadTo(firmware);
+		return firmware;
+	}
+
+	/**
+	 * For a given sequence of instructions compute the maximum stack usage.
+	 *
+	 * @param instructions
+	 * @return
+	 */
+	private int computeStackUsage(AvrInstruction... instructions) {
+		return new StackAnalysis(FirmwareGenerator.assemble(instructions)).apply();
+	}
+}
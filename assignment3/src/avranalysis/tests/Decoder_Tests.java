@@ -0,0 +1,91 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.ControlFlow;
+import avranalysis.core.InstructionTable;
+import avranalysis.util.FlashMemory;
+import avranalysis.util.HexLoader;
+import javr.core.AvrDecoder;
+import javr.core.AvrInstruction;
+import javr.memory.ByteMemory;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Decoder_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	@Test
+	public void test_01() {
+		// Every possible first word, each followed by the next
+		byte[] bytes = new byte[2 * 0x10000];
+		for (int word = 0; word < 0x10000; word++) {
+			bytes[2 * word] = (byte) word;
+			bytes[2 * word + 1] = (byte) (word >> 8);
+		}
+		checkAgainstDecoder(bytes);
+	}
+
+	@Test
+	public void test_02() throws IOException {
+		// Every word of the test firmwares
+		String[] names = {"fader","blocks_4","blocker_2","numbers_1","snake","tetris"};
+		for (String name : names) {
+			checkAgainstDecoder(HexLoader.load(new File(TESTS_DIR + name + ".hex")));
+		}
+	}
+
+	/**
+	 * Check that the table for an image agrees with AvrDecoder at every word
+	 * address.
+	 *
+	 * @param bytes
+	 */
+	private static void checkAgainstDecoder(byte[] bytes) {
+		InstructionTable table = new InstructionTable(FlashMemory.wrap(bytes));
+		byte[] padded = new byte[bytes.length + 4];
+		System.arraycopy(bytes, 0, padded, 0, bytes.length);
+		ByteMemory memory = new ByteMemory(padded);
+		AvrDecoder decoder = new AvrDecoder();
+		for (int pc = 0; pc < table.size(); pc++) {
+			AvrInstruction instruction = decoder.decode(memory, pc);
+			assertEquals(instruction.getOpcode(),table.getOpcode(pc));
+			assertEquals(instruction.getWidth(),table.getWidth(pc));
+			ControlFlow flow = table.getFlow(pc);
+			if (flow != ControlFlow.SKIP && flow != ControlFlow.INDIRECT_CALL
+					&& flow != ControlFlow.INDIRECT_JUMP) {
+				// Skip targets and indirect targets are resolved afterwards
+				assertEquals(target(instruction,pc),table.getTarget(pc));
+			}
+			assertEquals(instruction.toString(),table.getInstruction(pc).toString());
+		}
+	}
+
+	/**
+	 * Determine the absolute branch, jump or call target of an instruction.
+	 *
+	 * @param instruction
+	 * @param pc
+	 * @return
+	 */
+	private static int target(AvrInstruction instruction, int pc) {
+		int next = pc + instruction.getWidth();
+		if (instruction instanceof AvrInstruction.RelativeAddress) {
+			return next + ((AvrInstruction.RelativeAddress) instruction).k;
+		} else if (instruction instanceof AvrInstruction.FlagRelativeAddress) {
+			return next + ((AvrInstruction.FlagRelativeAddress) instruction).k;
+		} else if (instruction instanceof AvrInstruction.AbsoluteAddress) {
+			return ((AvrInstruction.AbsoluteAddress) instruction).k;
+		}
+		return InstructionTable.NO_TARGET;
+	}
+}
@@ -0,0 +1,143 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.AnalysisBudget;
+import avranalysis.core.Firmware;
+import avranalysis.core.StackAnalysis;
+import avranalysis.core.StackSession;
+import avranalysis.util.FirmwareGenerator;
+import avranalysis.util.HexLoader;
+import javr.core.AvrInstruction;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Firmware_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	/**
+	 * The test firmwares which are shared between threads.
+	 */
+	private static final String[] NAMES = {"fader","blocks_4","blocker_2","numbers_1","snake","tetris"};
+
+	@Test
+	public void test_01() {
+		// There is no snapshot before the analysis is applied
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(new AvrInstruction.RJMP(-1)));
+		try {
+			analysis.toFirmware();
+			fail("expected no call graph");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test_02() throws IOException {
+		// A snapshot is unaffected by applying the analysis again
+		StackAnalysis analysis = new StackAnalysis(HexLoader.load(new File(TESTS_DIR + "tetris.hex")));
+		int height = analysis.apply();
+		Firmware firmware = analysis.toFirmware();
+		analysis.setInterruptVectors(StackAnalysis.ATTINY85_VECTORS);
+		int withInterrupts = analysis.apply();
+		assertEquals(height,firmware.getMaxHeight());
+		assertEquals(0,firmware.getInterruptHandlers().length);
+		assertEquals(withInterrupts,analysis.toFirmware().getMaxHeight());
+		assertEquals(analysis.getCallGraph().size(),analysis.toFirmware().getCallGraph().size());
+	}
+
+	@Test
+	public void test_03() throws IOException {
+		// A session annotates the image as the analysis does
+		StackAnalysis analysis = new StackAnalysis(HexLoader.load(new File(TESTS_DIR + "snake.hex")));
+		analysis.setInterruptVectors(StackAnalysis.ATTINY85_VECTORS);
+		analysis.apply();
+		StringWriter expected = new StringWriter();
+		analysis.annotate(expected);
+		StringWriter actual = new StringWriter();
+		analysis.toFirmware().newSession().annotate(actual);
+		assertEquals(expected.toString(),actual.toString());
+	}
+
+	@Test
+	public void test_04() throws Exception {
+		// Many sessions query the same snapshots concurrently
+		final Firmware[] firmwares = new Firmware[NAMES.length];
+		for (int i = 0; i < NAMES.length; i++) {
+			StackAnalysis analysis = new StackAnalysis(HexLoader.load(new File(TESTS_DIR + NAMES[i] + ".hex")));
+			analysis.setInterruptVectors(StackAnalysis.ATTINY85_VECTORS);
+			analysis.apply();
+			firmwares[i] = analysis.toFirmware();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 16; t++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (Firmware firmware : firmwares) {
+							StackSession session = firmware.newSession();
+							for (int n = 0; n < 5; n++) {
+								assertEquals(firmware.getMaxHeight(),session.getWorstCasePath().getHeight());
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					// Report the failure within the session itself
+					if (e.getCause() instanceof Error) {
+						throw (Error) e.getCause();
+					}
+					throw (Exception) e.getCause();
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void test_05() throws IOException {
+		// There is no snapshot once the budget is exhausted, whether whilst
+		// traversing functions or whilst summarising them
+		AnalysisBudget[] budgets = {
+				new AnalysisBudget(10,Long.MAX_VALUE,Integer.MAX_VALUE),
+				new AnalysisBudget(Long.MAX_VALUE,Long.MAX_VALUE,1)
+		};
+		for (AnalysisBudget budget : budgets) {
+			StackAnalysis analysis = new StackAnalysis(HexLoader.load(new File(TESTS_DIR + "tetris.hex")));
+			analysis.setBudget(budget);
+			assertEquals(Integer.MAX_VALUE,analysis.apply());
+			try {
+				analysis.toFirmware();
+				fail("expected budget exhausted");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+		}
+	}
+}
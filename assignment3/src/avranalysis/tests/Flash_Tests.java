@@ -0,0 +1,127 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FlashMemory;
+import avranalysis.util.HexLoader;
+import javr.io.HexFile;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Flash_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	@Test
+	public void test_01() {
+		byte[] bytes = new byte[] {0x0F,(byte) 0x92,0x08,(byte) 0x95,0x12};
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 1);
+		direct.put((byte) 0x77).put(bytes).flip();
+		direct.position(1);
+		FlashMemory[] flashes = new FlashMemory[] {FlashMemory.wrap(bytes),FlashMemory.wrap(direct)};
+		for (FlashMemory flash : flashes) {
+			assertEquals(5,flash.size());
+			assertEquals((byte) 0x92,flash.read(1));
+			assertEquals(0x920F,flash.readWord(0));
+			assertEquals(0x9508,flash.readWord(1));
+			// The last word is only half present
+			assertEquals(0x12,flash.readWord(2));
+			assertEquals(0,flash.readWord(3));
+			byte[] copy = new byte[3];
+			flash.copy(2,copy,0,3);
+			assertArrayEquals(new byte[] {0x08,(byte) 0x95,0x12},copy);
+		}
+	}
+
+	@Test
+	public void test_02() {
+		// Flash is read-only
+		FlashMemory flash = FlashMemory.wrap(new byte[2]);
+		try {
+			flash.write(0,(byte) 1);
+			fail("expected read-only flash");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			flash.asBuffer().put((byte) 1);
+			fail("expected read-only buffer");
+		} catch (java.nio.ReadOnlyBufferException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test_03() throws IOException {
+		// A hex file gives the same flash as loading it directly
+		File file = new File(TESTS_DIR + "tetris.hex");
+		FileReader reader = new FileReader(file);
+		HexFile hf;
+		try {
+			hf = new HexFile.Reader(reader).readAll();
+		} finally {
+			reader.close();
+		}
+		byte[] loaded = HexLoader.load(file);
+		FlashMemory flash = FlashMemory.of(hf);
+		assertEquals(loaded.length,flash.size());
+		byte[] copy = new byte[loaded.length];
+		flash.copy(0,copy,0,copy.length);
+		assertArrayEquals(loaded,copy);
+	}
+
+	@Test
+	public void test_04() throws IOException {
+		// Analysis of flash held off-heap
+		byte[] loaded = HexLoader.load(new File(TESTS_DIR + "snake.hex"));
+		ByteBuffer direct = ByteBuffer.allocateDirect(loaded.length);
+		direct.put(loaded).flip();
+		assertEquals(59,new StackAnalysis(FlashMemory.wrap(direct)).apply());
+	}
+
+	@Test
+	public void test_05() {
+		// Address records are rejected, rather than ignored, as by uploadTo()
+		HexFile.Record linear = new HexFile.Record(0x04,0) {
+			@Override
+			public int size() {
+				return 2;
+			}
+
+			@Override
+			public byte get(int index) {
+				return index == 0 ? 0 : (byte) 0x01;
+			}
+		};
+		HexFile hf = new HexFile(Arrays.<HexFile.Record>asList(linear,new HexFile.Data(0,new byte[] {1,2}),new HexFile.EndOfFile(0)));
+		try {
+			FlashMemory.of(hf);
+			fail("expected invalid hexfile record");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new StackAnalysis(hf);
+			fail("expected invalid hexfile record");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		// Data and end of file records alone are accepted
+		hf = new HexFile(Arrays.<HexFile.Record>asList(new HexFile.Data(2,new byte[] {1,2}),new HexFile.EndOfFile(0)));
+		assertEquals(4,FlashMemory.of(hf).size());
+	}
+}
@@ -0,0 +1,186 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+import javr.core.AvrInstruction;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Frame_Tests {
+	private static final int SPL = 0x3D;
+	private static final int SPH = 0x3E;
+	/**
+	 * The register pair which javr encodes as Y for ADIW and SBIW (its encoder
+	 * is one pair out, although its decoder is correct).
+	 */
+	private static final int Y_PAIR = 26;
+
+	@Test
+	public void test_01() {
+		// A function with a four byte frame allocated using SBIW
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(28),
+				new AvrInstruction.PUSH(29),
+				new AvrInstruction.IN(28,SPL),
+				new AvrInstruction.IN(29,SPH),
+				new AvrInstruction.SBIW(Y_PAIR,4),
+				new AvrInstruction.OUT(SPH,29),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.ADIW(Y_PAIR,4),
+				new AvrInstruction.OUT(SPH,29),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.POP(29),
+				new AvrInstruction.POP(28),
+				new AvrInstruction.RET() };
+		// Check computation
+		assertEquals(2 + 2 + 4,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_02() {
+		// A function with a 300 byte frame allocated using SUBI/SBCI, which is
+		// released before pushing again.
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(28),
+				new AvrInstruction.PUSH(29),
+				new AvrInstruction.IN(28,SPL),
+				new AvrInstruction.IN(29,SPH),
+				new AvrInstruction.SUBI(28,300 & 0xFF),
+				new AvrInstruction.SBCI(29,300 >> 8),
+				new AvrInstruction.OUT(SPH,29),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.SUBI(28,-300 & 0xFF),
+				new AvrInstruction.SBCI(29,(-300 >> 8) & 0xFF),
+				new AvrInstruction.OUT(SPH,29),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.PUSH(17),
+				new AvrInstruction.POP(17),
+				new AvrInstruction.POP(16),
+				new AvrInstruction.POP(29),
+				new AvrInstruction.POP(28),
+				new AvrInstruction.RET() };
+		// Check computation
+		assertEquals(2 + 2 + 300,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_03() {
+		// Setting up the stack at the end of SRAM leaves it empty
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.LDI(28,0x5F),
+				new AvrInstruction.LDI(29,0x02),
+				new AvrInstruction.OUT(SPH,29),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.RJMP(-1) };
+		// Check computation
+		assertEquals(0,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_04() {
+		// Setting up the stack below the end of SRAM
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.LDI(28,0x5B),
+				new AvrInstruction.LDI(29,0x02),
+				new AvrInstruction.OUT(SPH,29),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.RJMP(-1) };
+		// Check computation
+		assertEquals(4,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_05() {
+		// Writing an unknown value to the stack pointer
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.MOVW(28,24),
+				new AvrInstruction.OUT(SPH,29),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.RJMP(-1) };
+		// Check computation
+		assertEquals(Integer.MAX_VALUE,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_06() {
+		// Allocating another frame on every iteration of a loop
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.IN(28,SPL),
+				new AvrInstruction.IN(29,SPH),
+				new AvrInstruction.SBIW(Y_PAIR,2),
+				new AvrInstruction.OUT(SPH,29),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.BREQ(-6),
+				new AvrInstruction.RJMP(-1) };
+		// Check computation
+		assertEquals(Integer.MAX_VALUE,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_07() {
+		// Allocating frame using "rcall ."
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.RCALL(0),
+				new AvrInstruction.RCALL(0),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RJMP(-1) };
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(instructions));
+		// Check computation
+		assertEquals(4,analysis.apply());
+		assertEquals(1,analysis.getCallGraph().size());
+	}
+
+	@Test
+	public void test_08() {
+		// The frame pointer is unknown when the paths disagree
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.IN(28,SPL),
+				new AvrInstruction.IN(29,SPH),
+				new AvrInstruction.BREQ(1),
+				new AvrInstruction.SBIW(Y_PAIR,2),
+				new AvrInstruction.OUT(SPH,29),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.RJMP(-1) };
+		// Check computation
+		assertEquals(Integer.MAX_VALUE,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_09() {
+		// Writing SPH from the zero register is not tracked, so the stack is
+		// unbounded even though the frame is known.
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.IN(28,SPL),
+				new AvrInstruction.IN(29,SPH),
+				new AvrInstruction.SBIW(Y_PAIR,4),
+				new AvrInstruction.CLI(),
+				new AvrInstruction.OUT(SPH,1),
+				new AvrInstruction.OUT(SPL,28),
+				new AvrInstruction.RJMP(-1) };
+		// Check computation
+		assertEquals(Integer.MAX_VALUE,computeStackUsage(instructions));
+	}
+
+	/**
+	 * For a given sequence of instructions compute the maximum stack usage.
+	 *
+	 * @param instructions
+	 * @return
+	 */
+	private int computeStackUsage(AvrInstruction... instructions) {
+		return new StackAnalysis(FirmwareGenerator.assemble(instructions)).apply();
+	}
+}
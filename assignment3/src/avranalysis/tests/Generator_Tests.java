@@ -0,0 +1,58 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Generator_Tests {
+	@Test
+	public void test_01() {
+		assertEquals(4096,new StackAnalysis(FirmwareGenerator.straightLine(4096)).apply());
+	}
+
+	@Test
+	public void test_02() {
+		assertEquals(1,new StackAnalysis(FirmwareGenerator.nestedLoops(1,1)).apply());
+	}
+
+	@Test
+	public void test_03() {
+		assertEquals(32,new StackAnalysis(FirmwareGenerator.nestedLoops(32,100)).apply());
+	}
+
+	@Test
+	public void test_04() {
+		assertEquals(3,new StackAnalysis(FirmwareGenerator.callTree(1,1)).apply());
+	}
+
+	@Test
+	public void test_05() {
+		assertEquals(2 * 6 + 1,new StackAnalysis(FirmwareGenerator.callTree(6,4)).apply());
+	}
+
+	@Test
+	public void test_06() {
+		assertEquals(2 * 1000 + 1,new StackAnalysis(FirmwareGenerator.callTree(1000,1)).apply());
+	}
+
+	@Test
+	public void test_07() {
+		assertEquals(1,new StackAnalysis(FirmwareGenerator.branchFan(1000)).apply());
+	}
+
+	@Test
+	public void test_08() {
+		assertEquals(Integer.MAX_VALUE,new StackAnalysis(FirmwareGenerator.recursion(1)).apply());
+	}
+
+	@Test
+	public void test_09() {
+		assertEquals(Integer.MAX_VALUE,new StackAnalysis(FirmwareGenerator.recursion(1000)).apply());
+	}
+}
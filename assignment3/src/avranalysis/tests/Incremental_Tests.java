@@ -0,0 +1,167 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+import javr.core.AvrInstruction;
+import javr.io.HexFile;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Incremental_Tests {
+	@Test
+	public void test_01() {
+		// Nothing has changed, so nothing is traversed
+		StackAnalysis analysis = new StackAnalysis(image(0,0));
+		assertEquals(2,analysis.apply());
+		assertEquals(3,analysis.getTraversedCount());
+		assertEquals(2,analysis.update(image(0,0)));
+		assertEquals(0,analysis.getTraversedCount());
+	}
+
+	@Test
+	public void test_02() {
+		// Only the changed function is traversed again
+		StackAnalysis analysis = new StackAnalysis(image(0,0));
+		analysis.apply();
+		assertEquals(2 + 2,analysis.update(image(0,2)));
+		assertEquals(1,analysis.getTraversedCount());
+		assertEquals(2,analysis.getSummary(8).getMaxHeight());
+		assertEquals(0,analysis.getSummary(3).getMaxHeight());
+		assertEquals(2 + 1,analysis.update(image(1,0)));
+		assertEquals(2,analysis.getTraversedCount());
+	}
+
+	@Test
+	public void test_03() {
+		// The result is the same as analysing the modified image from scratch
+		StackAnalysis analysis = new StackAnalysis(image(0,0));
+		analysis.apply();
+		for (int f = 0; f <= 2; f++) {
+			for (int g = 0; g <= 2; g++) {
+				HexFile hf = image(f,g);
+				assertEquals(new StackAnalysis(hf).apply(),analysis.update(hf));
+			}
+		}
+	}
+
+	@Test
+	public void test_04() {
+		// Without a previous result, everything is traversed
+		StackAnalysis analysis = new StackAnalysis(image(0,0));
+		assertEquals(2 + 1,analysis.update(image(1,1)));
+		assertEquals(3,analysis.getTraversedCount());
+	}
+
+	@Test
+	public void test_05() {
+		// A change which introduces recursion
+		StackAnalysis analysis = new StackAnalysis(image(0,0));
+		analysis.apply();
+		HexFile hf = FirmwareGenerator.assemble(
+				new AvrInstruction.RCALL(2),
+				new AvrInstruction.RCALL(6),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.RCALL(-1),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.RET(),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.RET());
+		assertEquals(Integer.MAX_VALUE,analysis.update(hf));
+		assertEquals(1,analysis.getTraversedCount());
+	}
+
+	@Test
+	public void test_06() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			StackAnalysis analysis = new StackAnalysis(image(0,0));
+			analysis.apply(pool);
+			assertEquals(2 + 2,analysis.update(image(0,2),pool));
+			assertEquals(1,analysis.getTraversedCount());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void test_07() {
+		// A jump past the end of the image reaches code added there
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.RJMP(7)));
+		assertEquals(2,analysis.apply());
+		AvrInstruction[] instructions = new AvrInstruction[13];
+		instructions[0] = new AvrInstruction.RCALL(1);
+		instructions[1] = new AvrInstruction.RJMP(-1);
+		instructions[2] = new AvrInstruction.RJMP(7);
+		for (int i = 3; i < 10; i++) {
+			instructions[i] = new AvrInstruction.NOP();
+		}
+		instructions[10] = new AvrInstruction.PUSH(0);
+		instructions[11] = new AvrInstruction.PUSH(1);
+		instructions[12] = new AvrInstruction.RET();
+		HexFile hf = FirmwareGenerator.assemble(instructions);
+		assertEquals(2 + 2,new StackAnalysis(hf).apply());
+		assertEquals(2 + 2,analysis.update(hf));
+	}
+
+	@Test
+	public void test_08() {
+		// Falling off the end of the image reaches code added there
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.NOP()));
+		assertEquals(2,analysis.apply());
+		HexFile hf = FirmwareGenerator.assemble(
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.PUSH(2),
+				new AvrInstruction.RET());
+		assertEquals(2 + 3,new StackAnalysis(hf).apply());
+		assertEquals(2 + 3,analysis.update(hf));
+	}
+
+	/**
+	 * Construct an image in which the main program calls a function f at 3 and
+	 * a function g at 8, each of which pushes a given number of registers. The
+	 * functions stay at the same addresses regardless of how much they push.
+	 *
+	 * @param f = number of registers pushed by f (at most 2).
+	 * @param g = number of registers pushed by g (at most 2).
+	 * @return image = assembled image.
+	 */
+	private static HexFile image(int f, int g) {
+		AvrInstruction[] instructions = new AvrInstruction[13];
+		instructions[0] = new AvrInstruction.RCALL(2);
+		instructions[1] = new AvrInstruction.RCALL(6);
+		instructions[2] = new AvrInstruction.RJMP(-1);
+		body(instructions,3,f);
+		body(instructions,8,g);
+		return FirmwareGenerator.assemble(instructions);
+	}
+
+	private static void body(AvrInstruction[] instructions, int entry, int pushes) {
+		for (int i = 0; i < 2; i++) {
+			instructions[entry + i] = i < pushes ? new AvrInstruction.PUSH(i) : new AvrInstruction.NOP();
+			instructions[entry + 3 - i] = i < pushes ? new AvrInstruction.POP(i) : new AvrInstruction.NOP();
+		}
+		instructions[entry + 4] = new AvrInstruction.RET();
+	}
+}
@@ -0,0 +1,156 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.InstructionTable;
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+import javr.core.AvrInstruction;
+import javr.io.HexFile;
+import javr.memory.ElasticByteMemory;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Indirect_Tests {
+	@Test
+	public void test_01() {
+		// Z loaded directly with the address of the function
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.LDI(30,4),
+				new AvrInstruction.LDI(31,0),
+				new AvrInstruction.ICALL(),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RET() };
+		InstructionTable table = table(instructions);
+		assertEquals(4,table.getTarget(2));
+		assertArrayEquals(new int[] {4},table.getFunctionEntries());
+		assertEquals(2 + 1,new StackAnalysis(FirmwareGenerator.assemble(instructions)).apply());
+	}
+
+	@Test
+	public void test_02() {
+		// Z copied from another register pair. The image is given directly, since
+		// the MOVW encoder cannot produce "movw r30,r24".
+		byte[] bytes = new byte[] {
+				(byte) 0x85, (byte) 0xE0, // ldi r24,5
+				(byte) 0x90, (byte) 0xE0, // ldi r25,0
+				(byte) 0xFC, (byte) 0x01, // movw r30,r24
+				(byte) 0x09, (byte) 0x95, // icall
+				(byte) 0xFF, (byte) 0xCF, // rjmp .-2
+				(byte) 0x0F, (byte) 0x92, // push r0
+				(byte) 0x0F, (byte) 0x90, // pop r0
+				(byte) 0x08, (byte) 0x95 }; // ret
+		HexFile hf = HexFile.toHexFile(bytes,16);
+		ElasticByteMemory memory = new ElasticByteMemory();
+		hf.uploadTo(memory);
+		assertEquals(5,new InstructionTable(memory).getTarget(3));
+		assertEquals(2 + 1,new StackAnalysis(hf).apply());
+	}
+
+	@Test
+	public void test_03() {
+		// Target loaded from a table in flash. The low byte of the word at 6 is 7.
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.LDI(30,12),
+				new AvrInstruction.LDI(31,0),
+				new AvrInstruction.LPM_Z_INC(0),
+				new AvrInstruction.MOV(30,0),
+				new AvrInstruction.ICALL(),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.LDI(16,7),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RET() };
+		assertEquals(7,table(instructions).getTarget(4));
+		assertEquals(2 + 1,new StackAnalysis(FirmwareGenerator.assemble(instructions)).apply());
+	}
+
+	@Test
+	public void test_04() {
+		// Z is unknown, so any known function may be called
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.RCALL(3),
+				new AvrInstruction.RCALL(5),
+				new AvrInstruction.ICALL(),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RET(),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RET() };
+		InstructionTable table = table(instructions);
+		assertEquals(InstructionTable.NO_TARGET,table.getTarget(2));
+		assertArrayEquals(new int[] {4,7},table.getFunctionEntries());
+		assertEquals(2 + 2,new StackAnalysis(FirmwareGenerator.assemble(instructions)).apply());
+	}
+
+	@Test
+	public void test_05() {
+		// An indirect jump within the function
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.LDI(30,4),
+				new AvrInstruction.LDI(31,0),
+				new AvrInstruction.IJMP(),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RET() };
+		assertEquals(4,table(instructions).getTarget(2));
+		assertEquals(1,new StackAnalysis(FirmwareGenerator.assemble(instructions)).apply());
+	}
+
+	@Test
+	public void test_06() {
+		// The load of r30 can be branched over, so the target is not resolved
+		// and only the function at 6 is known.
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.BRNE(1),
+				new AvrInstruction.LDI(30,9),
+				new AvrInstruction.LDI(31,0),
+				new AvrInstruction.ICALL(),
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RET(),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RET() };
+		assertEquals(InstructionTable.NO_TARGET,table(instructions).getTarget(3));
+		assertEquals(2 + 1,new StackAnalysis(FirmwareGenerator.assemble(instructions)).apply());
+	}
+
+	@Test
+	public void test_07() {
+		// An unresolved indirect jump is a tail call to any known function
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.RCALL(4),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.PUSH(2),
+				new AvrInstruction.IJMP(),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RET() };
+		assertEquals(3 + 2,new StackAnalysis(FirmwareGenerator.assemble(instructions)).apply());
+	}
+
+	private static InstructionTable table(AvrInstruction[] instructions) {
+		ElasticByteMemory memory = new ElasticByteMemory();
+		FirmwareGenerator.assemble(instructions).uploadTo(memory);
+		return new InstructionTable(memory);
+	}
+}
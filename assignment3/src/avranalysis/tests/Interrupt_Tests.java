@@ -0,0 +1,112 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.FirmwareGenerator;
+import javr.core.AvrInstruction;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Interrupt_Tests {
+	@Test
+	public void test_01() {
+		// Interrupts are not analysed by default
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(image(false)));
+		assertEquals(2,analysis.apply());
+		assertEquals(0,analysis.getInterruptHandlers().length);
+	}
+
+	@Test
+	public void test_02() {
+		// Neither handler enables interrupts, so only the worst is added
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(image(false)));
+		analysis.setInterruptVectors(4);
+		assertEquals(2 + 2 + 3,analysis.apply());
+		assertEquals(2,analysis.getMainHeight());
+		assertEquals(2 + 3,analysis.getInterruptHeight());
+		assertArrayEquals(new int[] {6,13},analysis.getInterruptHandlers());
+	}
+
+	@Test
+	public void test_03() {
+		// The second handler enables interrupts, so the first can nest inside it
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(image(true)));
+		analysis.setInterruptVectors(4);
+		assertEquals(2 + (2 + 1) + (2 + 3),analysis.apply());
+		assertEquals(true,analysis.getSummary(13).enablesInterrupts());
+		assertEquals(false,analysis.getSummary(6).enablesInterrupts());
+	}
+
+	@Test
+	public void test_04() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(image(true)));
+			analysis.setInterruptVectors(4);
+			assertEquals(2 + (2 + 1) + (2 + 3),analysis.apply(pool));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void test_05() {
+		// A handler which enables interrupts in a function it calls
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.RJMP(1),
+				new AvrInstruction.RJMP(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RETI(),
+				new AvrInstruction.SEI(),
+				new AvrInstruction.RET() };
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(instructions));
+		analysis.setInterruptVectors(2);
+		assertEquals(0 + (2 + 2),analysis.apply());
+		assertEquals(true,analysis.getSummary(3).enablesInterrupts());
+	}
+
+	/**
+	 * Construct an image with four vectors: reset, two handlers and an unused
+	 * vector which leads back to reset through __bad_interrupt. The main program
+	 * uses two bytes, the first handler three bytes and the second one byte.
+	 *
+	 * @param sei Whether the second handler enables interrupts
+	 * @return
+	 */
+	private static AvrInstruction[] image(boolean sei) {
+		return new AvrInstruction[] {
+				// Vectors
+				new AvrInstruction.RJMP(3),
+				new AvrInstruction.RJMP(4),
+				new AvrInstruction.RJMP(10),
+				new AvrInstruction.RJMP(14),
+				// Main program at 4
+				new AvrInstruction.RCALL(12),
+				new AvrInstruction.RJMP(-1),
+				// First handler at 6
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.PUSH(17),
+				new AvrInstruction.PUSH(18),
+				new AvrInstruction.POP(18),
+				new AvrInstruction.POP(17),
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RETI(),
+				// Second handler at 13
+				new AvrInstruction.PUSH(16),
+				sei ? new AvrInstruction.SEI() : new AvrInstruction.NOP(),
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RETI(),
+				// Function called from main at 17
+				new AvrInstruction.RET(),
+				// __bad_interrupt at 18
+				new AvrInstruction.RJMP(-19) };
+	}
+}
@@ -0,0 +1,116 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.BatchAnalysis;
+import avranalysis.core.StackAnalysis;
+import avranalysis.util.HexLoader;
+import javr.io.HexFile;
+import javr.memory.ElasticByteMemory;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Loader_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	@Test
+	public void test_01() throws IOException {
+		// Every test image loads to the same bytes as uploading a HexFile
+		List<File> files = BatchAnalysis.collect(Arrays.asList(new File(TESTS_DIR)));
+		assertEquals(13,files.size());
+		for (File file : files) {
+			ElasticByteMemory memory = new ElasticByteMemory();
+			FileReader reader = new FileReader(file);
+			try {
+				new HexFile.Reader(reader).readAll().uploadTo(memory);
+			} finally {
+				reader.close();
+			}
+			byte[] flash = HexLoader.load(file);
+			assertEquals(memory.size(),flash.length);
+			for (int i = 0; i < flash.length; i++) {
+				assertEquals(memory.read(i),flash[i]);
+			}
+		}
+	}
+
+	@Test
+	public void test_02() throws IOException {
+		assertEquals(59,new StackAnalysis(HexLoader.load(new File(TESTS_DIR + "snake.hex"))).apply());
+		assertEquals(35,new StackAnalysis(HexLoader.load(new File(TESTS_DIR + "tetris.hex"))).apply());
+	}
+
+	@Test
+	public void test_03() throws IOException {
+		// Extended linear address, CRLF line endings and no end of file record
+		byte[] flash = parse(":020000040000FA\r\n:0400040001020304EE\r\n");
+		assertArrayEquals(new byte[] {0,0,0,0,1,2,3,4},flash);
+		// Extended segment address
+		flash = parse(":020000020001FB\n:01000000AA55\n:00000001FF\n");
+		assertEquals(17,flash.length);
+		assertEquals((byte) 0xAA,flash[16]);
+	}
+
+	@Test
+	public void test_04() {
+		// Bad checksum
+		invalid(":0400040001020304EF\n");
+		// Invalid digit
+		invalid(":04000400010203G4EE\n");
+		// Truncated record
+		invalid(":0400040001020304\n");
+		// Missing start code
+		invalid("0400040001020304EE\n");
+	}
+
+	@Test
+	public void test_05() {
+		// Extended linear address beyond the range of an int
+		invalid(":0200000480007A\n:01000000AA55\n");
+		invalid(":02000004FFFFFC\n:01000000AA55\n");
+		// Data running past the range of an int
+		invalid(":020000047FFF7C\n:01FFFF00AA57\n");
+	}
+
+	@Test
+	public void test_06() throws IOException {
+		// The last byte of the largest AVR program space
+		byte[] flash = parse(":02000004003FBB\n:01FFFF00AA57\n");
+		assertEquals(4 << 20,flash.length);
+		assertEquals((byte) 0xAA,flash[(4 << 20) - 1]);
+		// Beyond it, the image is rejected before anything is allocated
+		invalid(":020000040040BA\n:01000000AA55\n");
+		invalid(":02000004003FBB\n:02FFFF00AABB9B\n");
+		invalid(":020000047FFF7C\n:01000000AA55\n");
+	}
+
+	private static byte[] parse(String text) throws IOException {
+		return HexLoader.parse(ByteBuffer.wrap(text.getBytes("US-ASCII")));
+	}
+
+	private static void invalid(String text) {
+		try {
+			parse(text);
+			fail("expected invalid record: " + text);
+		} catch (HexFile.InvalidHexLine e) {
+			// expected
+		} catch (IOException e) {
+			fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import javr.core.AvrInstruction;
+import javr.io.HexFile;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Parallel_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	/**
+	 * The pool on which functions are traversed in parallel.
+	 */
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+	@Test
+	public void test_01() throws IOException {
+		String[] filenames = { "fader.hex", "blocks_1.hex", "blocks_7.hex", "blocker_1.hex",
+				"blocker_2.hex", "numbers_1.hex", "snake.hex", "tetris.hex" };
+		for(String filename : filenames) {
+			HexFile hf = read(filename);
+			// Check parallel computation matches sequential computation
+			assertEquals(filename, new StackAnalysis(hf).apply(), new StackAnalysis(hf).apply(POOL));
+		}
+	}
+
+	@Test
+	public void test_02() {
+		AvrInstruction[] instructions = new AvrInstruction[] {
+				new AvrInstruction.RCALL(2),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.RCALL(2), // mutually recurse
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RET(),
+				new AvrInstruction.PUSH(16),
+				new AvrInstruction.RCALL(-6), // mutually recurse
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RET(),
+		};
+		// Check computation
+		assertEquals(Integer.MAX_VALUE, new StackAnalysis(assemble(instructions)).apply(POOL));
+	}
+
+	@Test
+	public void test_03() {
+		// A long chain of nested calls.
+		AvrInstruction[] instructions = new AvrInstruction[20003];
+		instructions[0] = new AvrInstruction.RCALL(1);
+		instructions[1] = new AvrInstruction.RJMP(-1);
+		for(int i=2;i!=20002;i+=2) {
+			instructions[i] = new AvrInstruction.RCALL(1);
+			instructions[i+1] = new AvrInstruction.RET();
+		}
+		instructions[20002] = new AvrInstruction.RET();
+		// Check computation
+		assertEquals(2 * 10001, new StackAnalysis(assemble(instructions)).apply(POOL));
+	}
+
+	@Test
+	public void test_04() {
+		// Many calls from one function to independent leaf functions.
+		AvrInstruction[] instructions = new AvrInstruction[500 + 2 + 3 * 500];
+		for(int i=0;i!=500;++i) {
+			// Call the i'th leaf function
+			instructions[i] = new AvrInstruction.RCALL(501 + 2 * i);
+		}
+		instructions[500] = new AvrInstruction.RJMP(-1);
+		instructions[501] = new AvrInstruction.NOP();
+		for(int i=0;i!=500;++i) {
+			boolean push = (i % 7) != 0;
+			instructions[502 + 3 * i] = push ? new AvrInstruction.PUSH(16) : new AvrInstruction.NOP();
+			instructions[503 + 3 * i] = push ? new AvrInstruction.POP(16) : new AvrInstruction.NOP();
+			instructions[504 + 3 * i] = new AvrInstruction.RET();
+		}
+		HexFile hf = assemble(instructions);
+		// Check computation
+		assertEquals(3, new StackAnalysis(hf).apply());
+		assertEquals(3, new StackAnalysis(hf).apply(POOL));
+	}
+
+	/**
+	 * Read a given firmware image from the tests directory.
+	 *
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	private HexFile read(String filename) throws IOException {
+		HexFile.Reader hfr = new HexFile.Reader(new FileReader(TESTS_DIR + filename));
+		return hfr.readAll();
+	}
+
+	/**
+	 * Responsible for turning a given sequence of instructions into a hexfile, so
+	 * that it can in turn be uploaded to the stack analysis.
+	 *
+	 * @param instructions
+	 * @return
+	 */
+	private HexFile assemble(AvrInstruction... instructions) {
+		byte[][] chunks = new byte[instructions.length][];
+		int total = 0;
+		// Encode each instruction into a byte sequence
+		for(int i=0;i!=instructions.length;++i) {
+			byte[] bytes = instructions[i].getBytes();
+			chunks[i] = bytes;
+			total = total + bytes.length;
+		}
+		// Flatten the chunks into a sequence
+		byte[] sequence = new byte[total];
+		//
+		for(int i=0,j=0;i!=chunks.length;++i) {
+			byte[] chunk = chunks[i];
+			System.arraycopy(chunk, 0, sequence, j, chunk.length);
+			j = j + chunk.length;
+		}
+		// Finally, create the hex file!
+		return HexFile.toHexFile(sequence,16);
+	}
+}
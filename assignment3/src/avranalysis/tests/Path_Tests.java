@@ -0,0 +1,150 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.core.StackPath;
+import avranalysis.util.FirmwareGenerator;
+import avranalysis.util.HexLoader;
+import javr.core.AvrInstruction;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Path_Tests {
+	/**
+	 * Identifies the directory in which the test firmwares are located.
+	 */
+	private static final String TESTS_DIR = "tests/".replace("/",File.separator);
+
+	@Test
+	public void test_01() {
+		// The path passes through the call site into the callee
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.RCALL(2),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.RET()));
+		assertEquals(4,analysis.apply());
+		StackPath path = analysis.getWorstCasePath();
+		assertEquals(3,path.size());
+		assertStep(path,0,0x0,StackPath.Kind.PUSH,1);
+		assertStep(path,1,0x1,StackPath.Kind.CALL,2);
+		assertStep(path,2,0x4,StackPath.Kind.PUSH,1);
+		assertEquals(4,path.getHeight());
+	}
+
+	@Test
+	public void test_02() {
+		// Bytes popped before the peak are not on the path
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.BREQ(2),
+				new AvrInstruction.PUSH(2),
+				new AvrInstruction.PUSH(3),
+				new AvrInstruction.RJMP(-1)));
+		assertEquals(3,analysis.apply());
+		StackPath path = analysis.getWorstCasePath();
+		assertEquals(3,path.size());
+		assertStep(path,0,0x0,StackPath.Kind.PUSH,1);
+		assertStep(path,1,0x4,StackPath.Kind.PUSH,1);
+		assertStep(path,2,0x5,StackPath.Kind.PUSH,1);
+		assertTrue(!path.isUnbounded());
+	}
+
+	@Test
+	public void test_03() {
+		// Recursion is reported at the call site which re-enters the function
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.RCALL(-2),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RET()));
+		assertEquals(Integer.MAX_VALUE,analysis.apply());
+		StackPath path = analysis.getWorstCasePath();
+		assertTrue(path.isUnbounded());
+		assertEquals(0x3,path.getUnboundedAt());
+		assertEquals(Integer.MAX_VALUE,path.getHeight());
+	}
+
+	@Test
+	public void test_04() throws IOException {
+		// The path accounts for the height of every test firmware
+		String[] names = {"fader","blocks_4","blocker_2","numbers_1","snake","tetris"};
+		for (String name : names) {
+			byte[] flash = HexLoader.load(new File(TESTS_DIR + name + ".hex"));
+			StackAnalysis analysis = new StackAnalysis(flash);
+			assertEquals(name,analysis.apply(),analysis.getWorstCasePath().getHeight());
+			analysis.setInterruptVectors(StackAnalysis.ATTINY85_VECTORS);
+			assertEquals(name,analysis.apply(),analysis.getWorstCasePath().getHeight());
+		}
+	}
+
+	@Test
+	public void test_05() {
+		// There is no path before the analysis is applied
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(new AvrInstruction.RJMP(-1)));
+		try {
+			analysis.getWorstCasePath();
+			fail("expected no call graph");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test_06() {
+		// Bytes popped below the height on entry are steps which pop
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.RET()));
+		assertEquals(1,analysis.apply());
+		StackPath path = analysis.getWorstCasePath();
+		assertEquals(2,path.size());
+		assertStep(path,0,0x0,StackPath.Kind.POP,-1);
+		assertStep(path,1,0x1,StackPath.Kind.CALL,2);
+		assertEquals(analysis.apply(),path.getHeight());
+	}
+
+	@Test
+	public void test_07() {
+		// A callee which pops bytes pushed by its caller
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.RCALL(2),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.POP(2),
+				new AvrInstruction.POP(3),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.PUSH(2),
+				new AvrInstruction.PUSH(3),
+				new AvrInstruction.PUSH(4),
+				new AvrInstruction.RET()));
+		assertEquals(4,analysis.apply());
+		assertEquals(analysis.apply(),analysis.getWorstCasePath().getHeight());
+	}
+
+	private static void assertStep(StackPath path, int i, int address, StackPath.Kind kind, int bytes) {
+		assertEquals(address,path.getAddress(i));
+		assertEquals(kind,path.getKind(i));
+		assertEquals(bytes,path.getBytes(i));
+	}
+}
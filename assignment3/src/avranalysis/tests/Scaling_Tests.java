@@ -0,0 +1,154 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import javr.core.AvrInstruction;
+import javr.io.HexFile;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Scaling_Tests {
+	@Test
+	public void test_01() {
+		// A long straight line of pushes, followed by matching pops.
+		AvrInstruction[] instructions = new AvrInstruction[20001];
+		for(int i=0;i!=10000;++i) {
+			instructions[i] = new AvrInstruction.PUSH(16);
+			instructions[i+10000] = new AvrInstruction.POP(16);
+		}
+		instructions[20000] = new AvrInstruction.RJMP(-1);
+		// Check computation
+		assertEquals(10000,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_02() {
+		// A long sequence of diamonds, each doubling the number of paths.
+		AvrInstruction[] instructions = new AvrInstruction[4 * 1000 + 1];
+		for(int i=0;i!=4000;i+=4) {
+			instructions[i] = new AvrInstruction.BREQ(2);
+			instructions[i+1] = new AvrInstruction.PUSH(16);
+			instructions[i+2] = new AvrInstruction.POP(16);
+			instructions[i+3] = new AvrInstruction.NOP();
+		}
+		instructions[4000] = new AvrInstruction.RJMP(-1);
+		// Check computation
+		assertEquals(1,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_03() {
+		// A long chain of nested calls.
+		AvrInstruction[] instructions = new AvrInstruction[5001];
+		instructions[0] = new AvrInstruction.RCALL(1);
+		instructions[1] = new AvrInstruction.RJMP(-1);
+		for(int i=2;i!=5000;++i) {
+			instructions[i] = new AvrInstruction.RCALL(0);
+		}
+		instructions[5000] = new AvrInstruction.RET();
+		// Check computation
+		assertEquals(2 * 4999,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_04() {
+		// A long loop which pushes once per iteration.
+		AvrInstruction[] instructions = new AvrInstruction[2002];
+		instructions[0] = new AvrInstruction.PUSH(16);
+		for(int i=1;i!=1999;++i) {
+			instructions[i] = new AvrInstruction.NOP();
+		}
+		instructions[1999] = new AvrInstruction.BREQ(1);
+		instructions[2000] = new AvrInstruction.RJMP(-2001);
+		instructions[2001] = new AvrInstruction.RJMP(-1);
+		// Check computation
+		assertEquals(Integer.MAX_VALUE,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_05() {
+		// A full 128K word image, which is mostly NOPs.
+		byte[] flash = new byte[256 * 1024];
+		byte[] push = new AvrInstruction.PUSH(16).getBytes();
+		byte[] loop = new AvrInstruction.RJMP(-1).getBytes();
+		System.arraycopy(push, 0, flash, flash.length - 4, 2);
+		System.arraycopy(loop, 0, flash, flash.length - 2, 2);
+		// Check computation
+		assertEquals(1,new StackAnalysis(flash).apply());
+	}
+
+	@Test
+	public void test_06() {
+		// A long chain of nested calls to separate functions.
+		AvrInstruction[] instructions = new AvrInstruction[10003];
+		instructions[0] = new AvrInstruction.RCALL(1);
+		instructions[1] = new AvrInstruction.RJMP(-1);
+		for(int i=2;i!=10002;i+=2) {
+			instructions[i] = new AvrInstruction.RCALL(1);
+			instructions[i+1] = new AvrInstruction.RET();
+		}
+		instructions[10002] = new AvrInstruction.RET();
+		// Check computation
+		assertEquals(2 * 5001,computeStackUsage(instructions));
+	}
+
+	@Test
+	public void test_07() {
+		// A long chain of functions, each of which calls the next and then falls
+		// through into it.
+		AvrInstruction[] instructions = new AvrInstruction[5003];
+		instructions[0] = new AvrInstruction.RCALL(1);
+		instructions[1] = new AvrInstruction.RJMP(-1);
+		for(int i=2;i!=5002;++i) {
+			instructions[i] = new AvrInstruction.CALL(2 * i);
+		}
+		instructions[5002] = new AvrInstruction.RET();
+		// Check computation
+		assertEquals(2 * 5001,computeStackUsage(instructions));
+	}
+
+	/**
+	 * For a given sequence of instructions compute the maximum stack usage.
+	 *
+	 * @param instructions
+	 * @return
+	 */
+	private int computeStackUsage(AvrInstruction... instructions) {
+		// Assemble instructions into hexfile
+		HexFile hf = assemble(instructions);
+		// Compute stack usage
+		return new StackAnalysis(hf).apply();
+	}
+
+	/**
+	 * Responsible for turning a given sequence of instructions into a hexfile, so
+	 * that it can in turn be uploaded to the stack analysis.
+	 *
+	 * @param instructions
+	 * @return
+	 */
+	private HexFile assemble(AvrInstruction... instructions) {
+		byte[][] chunks = new byte[instructions.length][];
+		int total = 0;
+		// Encode each instruction into a byte sequence
+		for(int i=0;i!=instructions.length;++i) {
+			byte[] bytes = instructions[i].getBytes();
+			chunks[i] = bytes;
+			total = total + bytes.length;
+		}
+		// Flatten the chunks into a sequence
+		byte[] sequence = new byte[total];
+		//
+		for(int i=0,j=0;i!=chunks.length;++i) {
+			byte[] chunk = chunks[i];
+			System.arraycopy(chunk, 0, sequence, j, chunk.length);
+			j = j + chunk.length;
+		}
+		// Finally, create the hex file!
+		return HexFile.toHexFile(sequence,16);
+	}
+}
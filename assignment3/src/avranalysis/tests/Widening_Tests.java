@@ -0,0 +1,96 @@
+package avranalysis.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import avranalysis.core.StackAnalysis;
+import avranalysis.core.StackPath;
+import avranalysis.util.FirmwareGenerator;
+import javr.core.AvrInstruction;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class Widening_Tests {
+	@Test
+	public void test_01() {
+		// A loop which pushes is reported at its head
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.NOP(),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.BREQ(-2),
+				new AvrInstruction.RJMP(-1)));
+		assertEquals(Integer.MAX_VALUE,analysis.apply());
+		StackPath path = analysis.getWorstCasePath();
+		assertTrue(path.isUnbounded());
+		assertEquals(0x2,path.getUnboundedAt());
+	}
+
+	@Test
+	public void test_02() {
+		// A balanced loop nested within another keeps an exact bound
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.PUSH(2),
+				new AvrInstruction.POP(2),
+				new AvrInstruction.BREQ(-3),
+				new AvrInstruction.POP(1),
+				new AvrInstruction.POP(0),
+				new AvrInstruction.BRNE(-8),
+				new AvrInstruction.RJMP(-1)));
+		assertEquals(3,analysis.apply());
+		assertTrue(!analysis.getWorstCasePath().isUnbounded());
+	}
+
+	@Test
+	public void test_03() {
+		// A loop entered at two different heights is not widened
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.BREQ(3),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.PUSH(1),
+				new AvrInstruction.RJMP(1),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.NOP(),
+				new AvrInstruction.BRNE(-3),
+				new AvrInstruction.RJMP(-1)));
+		assertEquals(2,analysis.apply());
+	}
+
+	@Test
+	public void test_04() {
+		// A long loop which grows the stack is found without a path the length
+		// of the image
+		AvrInstruction[] instructions = new AvrInstruction[2001];
+		instructions[0] = new AvrInstruction.PUSH(0);
+		for (int i = 1; i < 2000; i++) {
+			instructions[i] = new AvrInstruction.NOP();
+		}
+		instructions[2000] = new AvrInstruction.RJMP(-2001);
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(instructions));
+		assertEquals(Integer.MAX_VALUE,analysis.apply());
+		assertEquals(0x0,analysis.getWorstCasePath().getUnboundedAt());
+	}
+
+	@Test
+	public void test_05() {
+		// An unbounded callee stays unbounded when called below the height on
+		// entry to its caller
+		StackAnalysis analysis = new StackAnalysis(FirmwareGenerator.assemble(
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RJMP(0),
+				new AvrInstruction.POP(16),
+				new AvrInstruction.POP(16),
+				new AvrInstruction.RCALL(1),
+				new AvrInstruction.RJMP(-1),
+				new AvrInstruction.PUSH(0),
+				new AvrInstruction.RJMP(-2)));
+		assertEquals(Integer.MAX_VALUE,analysis.apply());
+		assertTrue(analysis.getSummary(0x0).isUnbounded());
+		assertTrue(analysis.getSummary(0x6).isUnbounded());
+	}
+}
@@ -0,0 +1,228 @@
+package avranalysis.util;
+
+import java.util.ArrayList;
+import javr.core.AvrInstruction;
+import javr.io.HexFile;
+
+/**
+ * Generates synthetic firmware images with parameterised control-flow shapes,
+ * for measuring how the stack analysis scales with the size of an image. Each
+ * shape has a known maximum stack height, which is documented on the method
+ * generating it. Every image begins at address zero, and ends with an infinite
+ * loop rather than running off the end.
+ *
+ * @author Caitlin
+ *
+ */
+public final class FirmwareGenerator {
+  /**
+   * The register pushed and popped by generated instructions.
+   */
+  private static final int REGISTER = 16;
+
+  /**
+   * The furthest distance (in words) which a relative jump can reach.
+   */
+  private static final int RJMP_RANGE = 2048;
+
+  /**
+   * The instructions generated so far.
+   */
+  private final ArrayList<AvrInstruction> instructions = new ArrayList<AvrInstruction>();
+
+  /**
+   * The address (in words) of the next instruction to be generated.
+   */
+  private int pc;
+
+  /**
+   * Generate a straight line of pushes, followed by the matching pops. The
+   * maximum stack height is the number of pushes.
+   *
+   * @param pushes = number of pushes.
+   * @return hexFile = generated image.
+   */
+  public static HexFile straightLine(int pushes) {
+    FirmwareGenerator gen = new FirmwareGenerator();
+    for (int i = 0; i < pushes; i++) {
+      gen.add(new AvrInstruction.PUSH(REGISTER));
+    }
+    for (int i = 0; i < pushes; i++) {
+      gen.add(new AvrInstruction.POP(REGISTER));
+    }
+    return gen.halt().toHexFile();
+  }
+
+  /**
+   * Generate a sequence of loop nests. Each level of a nest pushes on entry, and
+   * pops before branching back to its start. The maximum stack height is the
+   * depth of a nest.
+   *
+   * @param depth = number of loops in each nest.
+   * @param count = number of nests in the sequence.
+   * @return hexFile = generated image.
+   */
+  public static HexFile nestedLoops(int depth, int count) {
+    if (4 * depth > RJMP_RANGE) {
+      throw new IllegalArgumentException("loop nest too deep: " + depth);
+    }
+    FirmwareGenerator gen = new FirmwareGenerator();
+    int[] starts = new int[depth];
+    for (int n = 0; n < count; n++) {
+      for (int i = 0; i < depth; i++) {
+        starts[i] = gen.pc;
+        gen.add(new AvrInstruction.PUSH(REGISTER));
+      }
+      for (int i = depth - 1; i >= 0; i--) {
+        gen.add(new AvrInstruction.POP(REGISTER));
+        // Either leave the loop, or branch back to its start
+        gen.add(new AvrInstruction.BREQ(1));
+        gen.add(new AvrInstruction.RJMP(starts[i] - gen.pc - 1));
+      }
+    }
+    return gen.halt().toHexFile();
+  }
+
+  /**
+   * Generate a complete tree of functions, where every function above the
+   * lowest level calls each of its children in turn. Each function at the
+   * lowest level pushes and pops once. The maximum stack height is therefore
+   * two bytes for each level (for the return addresses), plus one.
+   *
+   * @param depth  = number of levels in the tree.
+   * @param fanout = number of functions called by each function.
+   * @return hexFile = generated image.
+   */
+  public static HexFile callTree(int depth, int fanout) {
+    if (depth < 1 || fanout < 1) {
+      throw new IllegalArgumentException("invalid call tree: " + depth + "x" + fanout);
+    }
+    // Determine the number of functions, and how many call other functions
+    int internal = 0;
+    int total = 1;
+    int width = 1;
+    for (int level = 1; level < depth; level++) {
+      internal += width;
+      width *= fanout;
+      total += width;
+    }
+    // Functions are laid out in breadth-first order after the main loop
+    int[] entries = new int[total];
+    int address = 3;
+    for (int f = 0; f < total; f++) {
+      entries[f] = address;
+      address += f < internal ? 2 * fanout + 1 : 3;
+    }
+    FirmwareGenerator gen = new FirmwareGenerator();
+    gen.add(new AvrInstruction.CALL(entries[0]));
+    gen.halt();
+    for (int f = 0; f < total; f++) {
+      if (f < internal) {
+        for (int c = 1; c <= fanout; c++) {
+          gen.add(new AvrInstruction.CALL(entries[f * fanout + c]));
+        }
+      } else {
+        gen.add(new AvrInstruction.PUSH(REGISTER));
+        gen.add(new AvrInstruction.POP(REGISTER));
+      }
+      gen.add(new AvrInstruction.RET());
+    }
+    return gen.toHexFile();
+  }
+
+  /**
+   * Generate a wide fan of branches, as produced for a switch statement. Each
+   * case tests a condition and jumps to its own arm, which pushes and pops once
+   * before jumping to the common exit. The maximum stack height is one.
+   *
+   * @param width = number of cases.
+   * @return hexFile = generated image.
+   */
+  public static HexFile branchFan(int width) {
+    int exit = 3 * width;
+    FirmwareGenerator gen = new FirmwareGenerator();
+    for (int i = 0; i < width; i++) {
+      // Either skip to the next case, or jump to this arm
+      gen.add(new AvrInstruction.BREQ(2));
+      gen.add(new AvrInstruction.JMP(exit + 1 + 4 * i));
+    }
+    gen.halt();
+    for (int i = 0; i < width; i++) {
+      gen.add(new AvrInstruction.PUSH(REGISTER));
+      gen.add(new AvrInstruction.POP(REGISTER));
+      gen.add(new AvrInstruction.JMP(exit));
+    }
+    return gen.toHexFile();
+  }
+
+  /**
+   * Generate a cycle of functions, where each calls the next and the last calls
+   * the first. The maximum stack height is unbounded.
+   *
+   * @param length = number of functions in the cycle.
+   * @return hexFile = generated image.
+   */
+  public static HexFile recursion(int length) {
+    if (length < 1) {
+      throw new IllegalArgumentException("invalid recursion: " + length);
+    }
+    FirmwareGenerator gen = new FirmwareGenerator();
+    gen.add(new AvrInstruction.CALL(3));
+    gen.halt();
+    for (int f = 0; f < length; f++) {
+      gen.add(new AvrInstruction.CALL(3 + 3 * ((f + 1) % length)));
+      gen.add(new AvrInstruction.RET());
+    }
+    return gen.toHexFile();
+  }
+
+  /**
+   * Turn a given sequence of instructions into a hexfile.
+   *
+   * @param instructions = instructions to assemble.
+   * @return hexFile = assembled hex file.
+   */
+  public static HexFile assemble(AvrInstruction... instructions) {
+    int total = 0;
+    for (AvrInstruction instruction : instructions) {
+      total += instruction.getBytes().length;
+    }
+    byte[] sequence = new byte[total];
+    int j = 0;
+    for (AvrInstruction instruction : instructions) {
+      byte[] bytes = instruction.getBytes();
+      System.arraycopy(bytes, 0, sequence, j, bytes.length);
+      j += bytes.length;
+    }
+    return HexFile.toHexFile(sequence, 16);
+  }
+
+  /**
+   * Append an instruction to the image being generated.
+   *
+   * @param instruction = instruction to append.
+   */
+  private void add(AvrInstruction instruction) {
+    this.instructions.add(instruction);
+    this.pc += instruction.getBytes().length / 2;
+  }
+
+  /**
+   * Append an infinite loop to the image being generated.
+   *
+   * @return generator = this generator.
+   */
+  private FirmwareGenerator halt() {
+    add(new AvrInstruction.RJMP(-1));
+    return this;
+  }
+
+  /**
+   * Assemble the instructions generated so far into a hexfile.
+   *
+   * @return hexFile = assembled hex file.
+   */
+  private HexFile toHexFile() {
+    return assemble(this.instructions.toArray(new AvrInstruction[this.instructions.size()]));
+  }
+}
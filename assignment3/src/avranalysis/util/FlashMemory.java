@@ -0,0 +1,229 @@
+package avranalysis.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javr.core.AVR;
+import javr.io.HexFile;
+
+/**
+ * A read-only, fixed-size view of the flash memory holding a firmware image.
+ * Unlike ElasticByteMemory, the size is fixed when the view is created, and
+ * nothing can be written. The contents are held either in a byte array or in a
+ * ByteBuffer (which may be direct, or a mapped file), and are never copied. The
+ * accessors are small and the implementations final, so that calls from the
+ * analysis can be inlined.
+ *
+ * @author Caitlin
+ *
+ */
+public abstract class FlashMemory implements AVR.Memory {
+  /**
+   * Create a view of flash backed by a given array, which is used as it is
+   * rather than copied.
+   *
+   * @param bytes = contents of flash, from address zero.
+   * @return flash = read-only view.
+   */
+  public static FlashMemory wrap(byte[] bytes) {
+    return new ArrayFlash(bytes);
+  }
+
+  /**
+   * Create a view of flash backed by the bytes between the position and limit
+   * of a given buffer, which are used as they are rather than copied.
+   *
+   * @param buffer = contents of flash, from address zero.
+   * @return flash = read-only view.
+   */
+  public static FlashMemory wrap(ByteBuffer buffer) {
+    return new BufferFlash(buffer.slice());
+  }
+
+  /**
+   * Create a view of flash holding the data records of a given hex file. Any
+   * bytes not covered by a data record are zero. As for HexFile.uploadTo(),
+   * the only other records permitted are end of file records, since the
+   * addresses of data records are taken as they are.
+   *
+   * @param hf = hex file.
+   * @return flash = read-only view.
+   * @throws IllegalArgumentException if the hex file holds any other record.
+   */
+  public static FlashMemory of(HexFile hf) {
+    int size = 0;
+    for (int i = 0; i < hf.size(); i++) {
+      HexFile.Record record = hf.get(i);
+      if (record instanceof HexFile.Data) {
+        size = Math.max(size, record.getAddress() + record.size());
+      } else if (!(record instanceof HexFile.EndOfFile)) {
+        throw new IllegalArgumentException("invalid hexfile record");
+      }
+    }
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < hf.size(); i++) {
+      HexFile.Record record = hf.get(i);
+      if (record instanceof HexFile.Data) {
+        int address = record.getAddress();
+        for (int j = 0; j < record.size(); j++) {
+          bytes[address + j] = record.get(j);
+        }
+      }
+    }
+    return new ArrayFlash(bytes);
+  }
+
+  /**
+   * Read the 16-bit word at a given word address. Words are little-endian, as
+   * for AVR instructions. Any part of the word beyond the end of flash reads as
+   * zero.
+   *
+   * @param word = word address.
+   * @return value = unsigned 16-bit word.
+   */
+  public abstract int readWord(int word);
+
+  /**
+   * Get a read-only view of the whole of flash, positioned at address zero.
+   * The contents are not copied.
+   *
+   * @return buffer = read-only buffer.
+   */
+  public abstract ByteBuffer asBuffer();
+
+  /**
+   * Copy a range of flash into a given array.
+   *
+   * @param address = first byte address to copy.
+   * @param dest    = array to copy into.
+   * @param offset  = first index of the array to copy into.
+   * @param length  = number of bytes to copy.
+   */
+  public void copy(int address, byte[] dest, int offset, int length) {
+    ByteBuffer buffer = asBuffer();
+    buffer.position(address);
+    buffer.get(dest, offset, length);
+  }
+
+  @Override
+  public byte peek(int address) {
+    return read(address);
+  }
+
+  @Override
+  public void write(int address, byte value) {
+    throw new UnsupportedOperationException("flash is read-only");
+  }
+
+  @Override
+  public void poke(int address, byte value) {
+    throw new UnsupportedOperationException("flash is read-only");
+  }
+
+  @Override
+  public void write(int address, byte[] values) {
+    throw new UnsupportedOperationException("flash is read-only");
+  }
+
+  @Override
+  public void reset() {
+    // Flash is unaffected by reset
+  }
+
+  /**
+   * Flash backed by a byte array.
+   *
+   * @author Caitlin
+   *
+   */
+  private static final class ArrayFlash extends FlashMemory {
+    /**
+     * The contents of flash.
+     */
+    private final byte[] bytes;
+
+    /**
+     * Constructor for Array Flash class.
+     *
+     * @param bytes = contents of flash.
+     */
+    private ArrayFlash(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int size() {
+      return this.bytes.length;
+    }
+
+    @Override
+    public byte read(int address) {
+      return this.bytes[address];
+    }
+
+    @Override
+    public int readWord(int word) {
+      int address = word << 1;
+      if (address + 1 < this.bytes.length) {
+        return (this.bytes[address] & 0xFF) | (this.bytes[address + 1] & 0xFF) << 8;
+      }
+      return address < this.bytes.length ? this.bytes[address] & 0xFF : 0;
+    }
+
+    @Override
+    public ByteBuffer asBuffer() {
+      return ByteBuffer.wrap(this.bytes).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void copy(int address, byte[] dest, int offset, int length) {
+      System.arraycopy(this.bytes, address, dest, offset, length);
+    }
+  }
+
+  /**
+   * Flash backed by a ByteBuffer.
+   *
+   * @author Caitlin
+   *
+   */
+  private static final class BufferFlash extends FlashMemory {
+    /**
+     * The contents of flash, from position zero.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor for Buffer Flash class.
+     *
+     * @param buffer = contents of flash, from position zero.
+     */
+    private BufferFlash(ByteBuffer buffer) {
+      this.buffer = buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public int size() {
+      return this.buffer.limit();
+    }
+
+    @Override
+    public byte read(int address) {
+      return this.buffer.get(address);
+    }
+
+    @Override
+    public int readWord(int word) {
+      int address = word << 1;
+      int size = this.buffer.limit();
+      if (address + 1 < size) {
+        return this.buffer.getShort(address) & 0xFFFF;
+      }
+      return address < size ? this.buffer.get(address) & 0xFF : 0;
+    }
+
+    @Override
+    public ByteBuffer asBuffer() {
+      return this.buffer.duplicate();
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package avranalysis.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import javr.io.HexFile;
+
+/**
+ * Loads firmware images in Intel HEX format directly into a flat array of
+ * flash bytes. The text is memory-mapped and parsed in place, without creating
+ * a line, record or intermediate memory for each record (as HexFile.Reader and
+ * HexFile.uploadTo do). The text is scanned twice: first to validate every
+ * record (including its checksum) and determine the size of the image from the
+ * record addresses, and then to copy the data into an array of exactly that
+ * size.
+ *
+ * <p>
+ * Data, end of file, extended segment address and extended linear address
+ * records are supported. Start address records are validated, but otherwise
+ * ignored. Any bytes of the image not covered by a data record are zero, and
+ * data beyond the largest AVR program space (4MB) is rejected.
+ * </p>
+ *
+ * @author Caitlin
+ *
+ */
+public final class HexLoader {
+  /**
+   * Record type for data.
+   */
+  private static final int DATA = 0x00;
+
+  /**
+   * Record type marking the end of the file.
+   */
+  private static final int END_OF_FILE = 0x01;
+
+  /**
+   * Record type giving a segment base address (in units of 16 bytes).
+   */
+  private static final int EXTENDED_SEGMENT_ADDRESS = 0x02;
+
+  /**
+   * Record type giving the upper 16 bits of a linear base address.
+   */
+  private static final int EXTENDED_LINEAR_ADDRESS = 0x04;
+
+  /**
+   * Size in bytes of the largest AVR program space (a 22-bit word address).
+   * Records beyond this are rejected, rather than allocating an array to hold
+   * them.
+   */
+  private static final int MAX_SIZE = 4 << 20;
+
+  /**
+   * Private constructor, since this class only has static methods.
+   */
+  private HexLoader() {
+  }
+
+  /**
+   * Load the firmware image held in a given Intel HEX file.
+   *
+   * @param file = file to load.
+   * @return flash = contents of the image, from address zero.
+   * @throws IOException if the file cannot be read, or is not valid.
+   */
+  public static byte[] load(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Parse a firmware image in Intel HEX format, from the position to the limit
+   * of a given buffer. The position of the buffer is not changed.
+   *
+   * @param text = text of the image.
+   * @return flash = contents of the image, from address zero.
+   * @throws IOException if the text is not valid.
+   */
+  public static byte[] parse(ByteBuffer text) throws IOException {
+    byte[] flash = new byte[scan(text, null)];
+    scan(text, flash);
+    return flash;
+  }
+
+  /**
+   * Scan every record of an image. When no flash array is given, each record is
+   * validated and the size of the image is determined. Otherwise, the data of
+   * each record is copied into the array.
+   *
+   * @param text  = text of the image.
+   * @param flash = array into which data is copied, or null.
+   * @return size = number of bytes in the image.
+   * @throws IOException if the text is not valid.
+   */
+  private static int scan(ByteBuffer text, byte[] flash) throws IOException {
+    int limit = text.limit();
+    int pos = text.position();
+    int line = 1;
+    long base = 0;
+    int size = 0;
+    while (true) {
+      // Skip the line terminator (and any blank lines) before each record
+      while (pos < limit && isSpace(text.get(pos))) {
+        if (text.get(pos) == '\n') {
+          line++;
+        }
+        pos++;
+      }
+      if (pos == limit) {
+        // The end of file record is optional
+        return size;
+      } else if (text.get(pos) != ':') {
+        throw invalid(line, "expected ':'");
+      }
+      // Check the record is long enough to hold its data and checksum
+      int count = pos + 2 < limit ? readByte(text, pos + 1, line) : -1;
+      if (count < 0 || pos + 11 + 2 * count > limit) {
+        throw invalid(line, "truncated record");
+      }
+      int address = readByte(text, pos + 3, line) << 8 | readByte(text, pos + 5, line);
+      int type = readByte(text, pos + 7, line);
+      int data = pos + 9;
+      int end = data + 2 * count;
+      if (flash == null) {
+        int sum = count + (address >> 8) + (address & 0xFF) + type;
+        for (int i = data; i <= end; i += 2) {
+          sum += readByte(text, i, line);
+        }
+        if ((sum & 0xFF) != 0) {
+          throw invalid(line, "checksum mismatch");
+        }
+      }
+      switch (type) {
+        case DATA: {
+          // The base is a long, since extended linear addresses can exceed
+          // the range of an int
+          if (base + address + count > MAX_SIZE) {
+            throw invalid(line, "address out of range");
+          }
+          int start = (int) base + address;
+          if (flash != null) {
+            for (int i = 0; i < count; i++) {
+              flash[start + i] = (byte) readByte(text, data + 2 * i, line);
+            }
+          }
+          size = Math.max(size, start + count);
+          break;
+        }
+        case END_OF_FILE:
+          return size;
+        case EXTENDED_SEGMENT_ADDRESS:
+        case EXTENDED_LINEAR_ADDRESS: {
+          if (count != 2) {
+            throw invalid(line, "invalid address record");
+          }
+          int value = readByte(text, data, line) << 8 | readByte(text, data + 2, line);
+          base = type == EXTENDED_SEGMENT_ADDRESS ? value << 4 : (long) value << 16;
+          break;
+        }
+        default:
+          // Start address records have no effect on the image
+          if (type > 0x05) {
+            throw invalid(line, "unknown record type " + type);
+          }
+      }
+      pos = end + 2;
+    }
+  }
+
+  /**
+   * Read a byte written as two hexadecimal digits.
+   *
+   * @param text = text of the image.
+   * @param pos  = position of the first digit.
+   * @param line = line number, for reporting errors.
+   * @return value = unsigned byte.
+   * @throws IOException if either digit is invalid.
+   */
+  private static int readByte(ByteBuffer text, int pos, int line) throws IOException {
+    int high = Character.digit(text.get(pos), 16);
+    int low = Character.digit(text.get(pos + 1), 16);
+    if (high < 0 || low < 0) {
+      throw invalid(line, "invalid hex digit");
+    }
+    return high << 4 | low;
+  }
+
+  /**
+   * Check whether a given character separates records.
+   *
+   * @param c = character.
+   * @return true if whitespace, false otherwise.
+   */
+  private static boolean isSpace(byte c) {
+    return c == '\n' || c == '\r' || c == ' ' || c == '\t';
+  }
+
+  /**
+   * Construct the exception reporting an invalid record.
+   *
+   * @param line    = line number of the record.
+   * @param message = description of the problem.
+   * @return exception = exception to throw.
+   */
+  private static IOException invalid(int line, String message) {
+    return new HexFile.InvalidHexLine("line " + line + ": " + message);
+  }
+}
@@ -0,0 +1,111 @@
+package avranalysis.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A first-in first-out queue of primitive integers, held in a circular buffer
+ * which grows as necessary. Adding and removing elements never allocates unless
+ * the buffer is full.
+ *
+ * @author Caitlin
+ *
+ */
+public class IntQueue {
+  /**
+   * The circular buffer holding the elements of this queue.
+   */
+  private int[] items;
+
+  /**
+   * The index of the first element in the buffer.
+   */
+  private int head;
+
+  /**
+   * The number of elements in this queue.
+   */
+  private int size;
+
+  /**
+   * Constructor for Int Queue class.
+   */
+  public IntQueue() {
+    this(16);
+  }
+
+  /**
+   * Constructor for Int Queue class.
+   *
+   * @param capacity = initial capacity of the queue.
+   */
+  public IntQueue(int capacity) {
+    this.items = new int[Math.max(capacity, 1)];
+  }
+
+  /**
+   * Get the number of elements in this queue.
+   *
+   * @return size = number of elements.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Check whether this queue is empty.
+   *
+   * @return true if there are no elements, false otherwise.
+   */
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Add an element to the end of this queue.
+   *
+   * @param item = element to add.
+   */
+  public void add(int item) {
+    if (this.size == this.items.length) {
+      grow();
+    }
+    this.items[(this.head + this.size) % this.items.length] = item;
+    this.size++;
+  }
+
+  /**
+   * Remove the element at the front of this queue.
+   *
+   * @return item = element removed.
+   */
+  public int poll() {
+    if (this.size == 0) {
+      throw new NoSuchElementException();
+    }
+    int item = this.items[this.head];
+    this.head = (this.head + 1) % this.items.length;
+    this.size--;
+    return item;
+  }
+
+  /**
+   * Remove all elements from this queue.
+   */
+  public void clear() {
+    this.head = 0;
+    this.size = 0;
+  }
+
+  /**
+   * Double the capacity of the buffer, unrolling the elements so that the
+   * first element is at the start.
+   */
+  private void grow() {
+    int[] nitems = new int[this.items.length * 2];
+    for (int i = 0; i < this.size; i++) {
+      nitems[i] = this.items[(this.head + i) % this.items.length];
+    }
+    this.items = nitems;
+    this.head = 0;
+  }
+}
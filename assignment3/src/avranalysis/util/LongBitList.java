@@ -0,0 +1,96 @@
+package avranalysis.util;
+
+import java.util.Arrays;
+import javr.util.BitList;
+
+/**
+ * A fixed-size list of bits, packed 64 to each element of an array of longs.
+ * Unlike an array of booleans, which takes a byte for every bit, a list
+ * covering every word address of a 128K word image takes only 16 KB. Clearing
+ * the list, and searching for the next set bit, move over 64 bits at a time.
+ *
+ * @author Caitlin
+ *
+ */
+public class LongBitList implements BitList {
+  /**
+   * The bits of this list, with bit i held in bit (i % 64) of element i / 64.
+   */
+  private final long[] words;
+
+  /**
+   * The number of bits in this list.
+   */
+  private final int size;
+
+  /**
+   * Constructor for Long Bit List class. Every bit is initially clear.
+   *
+   * @param size = number of bits.
+   */
+  public LongBitList(int size) {
+    this.words = new long[(size + 63) >>> 6];
+    this.size = size;
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public boolean get(int index) {
+    return (this.words[index >>> 6] & (1L << index)) != 0;
+  }
+
+  @Override
+  public void set(int index, boolean value) {
+    if (value) {
+      this.words[index >>> 6] |= 1L << index;
+    } else {
+      this.words[index >>> 6] &= ~(1L << index);
+    }
+  }
+
+  /**
+   * Set a given bit, and report whether it was clear beforehand. This allows a
+   * visited set to be tested and updated at once.
+   *
+   * @param index = index of bit.
+   * @return true if the bit was clear, false otherwise.
+   */
+  public boolean add(int index) {
+    long mask = 1L << index;
+    long word = this.words[index >>> 6];
+    this.words[index >>> 6] = word | mask;
+    return (word & mask) == 0;
+  }
+
+  /**
+   * Clear every bit of this list.
+   */
+  public void clear() {
+    Arrays.fill(this.words, 0L);
+  }
+
+  /**
+   * Find the first set bit at or after a given index.
+   *
+   * @param from = index at which to begin.
+   * @return index = index of set bit, or -1 if there is none.
+   */
+  public int nextSetBit(int from) {
+    if (from >= this.size) {
+      return -1;
+    }
+    int i = from >>> 6;
+    long word = this.words[i] & (-1L << from);
+    while (word == 0) {
+      if (++i == this.words.length) {
+        return -1;
+      }
+      word = this.words[i];
+    }
+    return (i << 6) + Long.numberOfTrailingZeros(word);
+  }
+}